@@ -23,14 +23,21 @@ class JSContext {
 public:
     virtual ~JSContext() {};
 
+    virtual void enter(JNIEnv *env) = 0;
+    virtual void leave() = 0;
+
     virtual void finalizeJavaScriptObjects(JNIEnv *env, jlongArray objects) = 0;
 
     virtual jobject evaluate(JNIEnv *env, jstring code, jstring filename) = 0;
     virtual jobject evaluateModule(JNIEnv *env, jstring code, jstring filename) = 0;
     virtual jobject compile(JNIEnv* env, jstring code, jstring filename) = 0;
+    virtual jbyteArray compileBytecode(JNIEnv* env, jstring code, jstring filename, jboolean module) = 0;
+    virtual jobject evaluateBytecode(JNIEnv* env, jobject bytecode) = 0;
 
     virtual jobject getGlobalObject(JNIEnv *env) = 0;
     virtual jstring stringify(JNIEnv *env, jlong object) = 0;
+    virtual jstring typeOf(JNIEnv *env, jlong object) = 0;
+    virtual jboolean isInstanceOf(JNIEnv *env, jlong object, jlong constructor) = 0;
 
     virtual jobject getKeyString(JNIEnv* env, jlong object, jstring key) = 0;
     virtual jobject getKeyInteger(JNIEnv* env, jlong object, jint index) = 0;
@@ -38,14 +45,38 @@ public:
     virtual jboolean setKeyString(JNIEnv* env, jlong object, jstring key, jobject value) = 0;
     virtual jboolean setKeyInteger(JNIEnv* env, jlong object, jint index, jobject value) = 0;
     virtual jboolean setKeyObject(JNIEnv* env, jlong object, jobject key, jobject value) = 0;
+    virtual jint newAtom(JNIEnv* env, jstring name) = 0;
+    virtual void freeAtoms(JNIEnv* env, jintArray atoms) = 0;
+    virtual jobject getKeyAtom(JNIEnv* env, jlong object, jint atom) = 0;
+    virtual jboolean setKeyAtom(JNIEnv* env, jlong object, jint atom, jobject value) = 0;
+    virtual jint getKeyStringInt(JNIEnv* env, jlong object, jstring key) = 0;
+    virtual jdouble getKeyStringDouble(JNIEnv* env, jlong object, jstring key) = 0;
+    virtual jint getKeyAtomInt(JNIEnv* env, jlong object, jint atom) = 0;
+    virtual jdouble getKeyAtomDouble(JNIEnv* env, jlong object, jint atom) = 0;
+    virtual jobjectArray getKeys(JNIEnv* env, jlong object, jobjectArray keys) = 0;
+    virtual jobjectArray getRange(JNIEnv* env, jlong object, jint start, jint count) = 0;
+    virtual jboolean setKeys(JNIEnv* env, jlong object, jobjectArray keys, jobjectArray values) = 0;
+    virtual jboolean setRange(JNIEnv* env, jlong object, jint start, jobjectArray values) = 0;
+    virtual jobject newObject(JNIEnv* env, jintArray atoms, jobjectArray values) = 0;
+    virtual jobject newArray(JNIEnv* env, jint length) = 0;
+    virtual jobject toJavaArray(JNIEnv* env, jlong object, jint kind) = 0;
+    virtual jobject fromJavaArray(JNIEnv* env, jobject array, jint kind) = 0;
+    virtual jobject encodeBinary(JNIEnv* env, jlong object) = 0;
 
     virtual jobject callConstructor(JNIEnv *env, jlong object, jobjectArray args) = 0;
     virtual jobject call(JNIEnv *env, jlong object, jobjectArray args) = 0;
     virtual jobject callProperty(JNIEnv *env, jlong object, jobject property, jobjectArray args) = 0;
+    virtual jobject callPropertyAtom(JNIEnv *env, jlong object, jint atom, jobjectArray args) = 0;
     virtual jobject callMethod(JNIEnv *env, jlong method, jobject object, jobjectArray args) = 0;
+    // calls with number arguments, and converts the result to a number, without boxing.
+    // args is used instead of arg0 and arg1 if it is not null.
+    virtual jdouble callDouble(JNIEnv *env, jlong object, jint argc, jdouble arg0, jdouble arg1, jdoubleArray args) = 0;
 
-    virtual jboolean hasPendingJobs(JNIEnv *env) = 0;
-    virtual void runJobs(JNIEnv *env) = 0;
+    virtual jobject getJobsPendingFlag(JNIEnv *env) = 0;
+    // returns true if jobs remain after the job or time limit was reached.
+    virtual jboolean runJobs(JNIEnv *env, jint maxJobs, jlong maxNanos) = 0;
+    virtual void checkpoint(JNIEnv *env) = 0;
+    virtual jboolean reset(JNIEnv *env) = 0;
 
     virtual void waitForDebugger(JNIEnv *env, jstring connectionString) = 0;
     virtual void cooperateDebugger() = 0;
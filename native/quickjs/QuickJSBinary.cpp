@@ -0,0 +1,284 @@
+#include "QuickJSBinary.h"
+#include <string.h>
+
+// Structured binary values exchanged with Java, see QuackBinaryObject.
+// Each value is a tag byte, followed by:
+//   BINARY_INT32: 4 byte int
+//   BINARY_DOUBLE: 8 byte double
+//   BINARY_STRING: 4 byte length, UTF-8 bytes
+//   BINARY_ARRAY: 4 byte count, values
+//   BINARY_OBJECT: 4 byte count, (4 byte key length, UTF-8 key bytes, value) pairs
+// Numbers are little endian.
+enum BinaryTag {
+    BINARY_NULL = 0,
+    BINARY_UNDEFINED = 1,
+    BINARY_FALSE = 2,
+    BINARY_TRUE = 3,
+    BINARY_INT32 = 4,
+    BINARY_DOUBLE = 5,
+    BINARY_STRING = 6,
+    BINARY_ARRAY = 7,
+    BINARY_OBJECT = 8,
+};
+
+// nesting limit, which also stops cyclic objects.
+static const int BINARY_MAX_DEPTH = 512;
+
+struct BinaryReader {
+    const uint8_t *ptr;
+    const uint8_t *end;
+
+    bool readBytes(void *out, size_t size) {
+        if ((size_t)(end - ptr) < size)
+            return false;
+        memcpy(out, ptr, size);
+        ptr += size;
+        return true;
+    }
+
+    bool readUint8(uint8_t *out) {
+        return readBytes(out, 1);
+    }
+
+    bool readUint32(uint32_t *out) {
+        uint8_t bytes[4];
+        if (!readBytes(bytes, 4))
+            return false;
+        *out = (uint32_t)bytes[0] | ((uint32_t)bytes[1] << 8) | ((uint32_t)bytes[2] << 16) | ((uint32_t)bytes[3] << 24);
+        return true;
+    }
+
+    bool readUint64(uint64_t *out) {
+        uint32_t low;
+        uint32_t high;
+        if (!readUint32(&low) || !readUint32(&high))
+            return false;
+        *out = (uint64_t)low | ((uint64_t)high << 32);
+        return true;
+    }
+
+    bool readString(const char **str, uint32_t *length) {
+        if (!readUint32(length) || (size_t)(end - ptr) < *length)
+            return false;
+        *str = reinterpret_cast<const char *>(ptr);
+        ptr += *length;
+        return true;
+    }
+};
+
+static void writeUint32(std::vector<uint8_t> &out, uint32_t value) {
+    out.push_back((uint8_t)value);
+    out.push_back((uint8_t)(value >> 8));
+    out.push_back((uint8_t)(value >> 16));
+    out.push_back((uint8_t)(value >> 24));
+}
+
+static void writeUint64(std::vector<uint8_t> &out, uint64_t value) {
+    writeUint32(out, (uint32_t)value);
+    writeUint32(out, (uint32_t)(value >> 32));
+}
+
+static void writeString(std::vector<uint8_t> &out, const char *str, size_t length) {
+    writeUint32(out, (uint32_t)length);
+    out.insert(out.end(), str, str + length);
+}
+
+static JSValue decodeBinaryValue(JSContext *ctx, BinaryReader &reader, int depth) {
+    if (depth > BINARY_MAX_DEPTH)
+        return JS_ThrowRangeError(ctx, "QuackBinaryObject nesting is too deep");
+
+    uint8_t tag;
+    if (!reader.readUint8(&tag))
+        return JS_ThrowTypeError(ctx, "QuackBinaryObject is truncated");
+
+    switch (tag) {
+        case BINARY_NULL:
+            return JS_NULL;
+        case BINARY_UNDEFINED:
+            return JS_UNDEFINED;
+        case BINARY_FALSE:
+            return JS_FALSE;
+        case BINARY_TRUE:
+            return JS_TRUE;
+        case BINARY_INT32: {
+            uint32_t value;
+            if (!reader.readUint32(&value))
+                break;
+            return JS_NewInt32(ctx, (int32_t)value);
+        }
+        case BINARY_DOUBLE: {
+            uint64_t bits;
+            if (!reader.readUint64(&bits))
+                break;
+            double value;
+            memcpy(&value, &bits, sizeof(value));
+            return JS_NewFloat64(ctx, value);
+        }
+        case BINARY_STRING: {
+            const char *str;
+            uint32_t length;
+            if (!reader.readString(&str, &length))
+                break;
+            return JS_NewStringLen(ctx, str, length);
+        }
+        case BINARY_ARRAY: {
+            uint32_t count;
+            if (!reader.readUint32(&count))
+                break;
+            JSValue array = JS_NewArray(ctx);
+            for (uint32_t i = 0; i < count; i++) {
+                JSValue element = decodeBinaryValue(ctx, reader, depth + 1);
+                if (JS_IsException(element)) {
+                    JS_FreeValue(ctx, array);
+                    return element;
+                }
+                JS_DefinePropertyValueUint32(ctx, array, i, element, JS_PROP_C_W_E);
+            }
+            return array;
+        }
+        case BINARY_OBJECT: {
+            uint32_t count;
+            if (!reader.readUint32(&count))
+                break;
+            JSValue object = JS_NewObject(ctx);
+            for (uint32_t i = 0; i < count; i++) {
+                const char *key;
+                uint32_t keyLength;
+                if (!reader.readString(&key, &keyLength)) {
+                    JS_FreeValue(ctx, object);
+                    return JS_ThrowTypeError(ctx, "QuackBinaryObject is truncated");
+                }
+                JSValue value = decodeBinaryValue(ctx, reader, depth + 1);
+                if (JS_IsException(value)) {
+                    JS_FreeValue(ctx, object);
+                    return value;
+                }
+                // defined rather than set, like JSON.parse, so keys like __proto__ are plain properties.
+                JSAtom atom = JS_NewAtomLen(ctx, key, keyLength);
+                JS_DefinePropertyValue(ctx, object, atom, value, JS_PROP_C_W_E);
+                JS_FreeAtom(ctx, atom);
+            }
+            return object;
+        }
+        default:
+            return JS_ThrowTypeError(ctx, "QuackBinaryObject has an unknown tag %d", tag);
+    }
+
+    return JS_ThrowTypeError(ctx, "QuackBinaryObject is truncated");
+}
+
+// returns false if an exception is pending.
+static bool encodeBinaryValue(JSContext *ctx, std::vector<uint8_t> &out, JSValue value, int depth) {
+    if (depth > BINARY_MAX_DEPTH) {
+        JS_ThrowRangeError(ctx, "value is too deeply nested, or is cyclic");
+        return false;
+    }
+
+    switch (JS_VALUE_GET_TAG(value)) {
+        case JS_TAG_NULL:
+            out.push_back(BINARY_NULL);
+            return true;
+        case JS_TAG_BOOL:
+            out.push_back(JS_VALUE_GET_BOOL(value) ? BINARY_TRUE : BINARY_FALSE);
+            return true;
+        case JS_TAG_INT:
+            out.push_back(BINARY_INT32);
+            writeUint32(out, (uint32_t)JS_VALUE_GET_INT(value));
+            return true;
+        case JS_TAG_FLOAT64: {
+            double d = JS_VALUE_GET_FLOAT64(value);
+            uint64_t bits;
+            memcpy(&bits, &d, sizeof(bits));
+            out.push_back(BINARY_DOUBLE);
+            writeUint64(out, bits);
+            return true;
+        }
+        case JS_TAG_STRING: {
+            size_t length;
+            const char *str = JS_ToCStringLen(ctx, &length, value);
+            if (str == nullptr)
+                return false;
+            out.push_back(BINARY_STRING);
+            writeString(out, str, length);
+            JS_FreeCString(ctx, str);
+            return true;
+        }
+        case JS_TAG_OBJECT:
+            break;
+        default:
+            // undefined, symbols, and big numbers.
+            out.push_back(BINARY_UNDEFINED);
+            return true;
+    }
+
+    if (JS_IsFunction(ctx, value)) {
+        out.push_back(BINARY_UNDEFINED);
+        return true;
+    }
+
+    int isArray = JS_IsArray(ctx, value);
+    if (isArray < 0)
+        return false;
+    if (isArray) {
+        uint32_t length;
+        JSValue lengthValue = JS_GetPropertyStr(ctx, value, "length");
+        int result = JS_ToUint32(ctx, &length, lengthValue);
+        JS_FreeValue(ctx, lengthValue);
+        if (result < 0)
+            return false;
+        out.push_back(BINARY_ARRAY);
+        writeUint32(out, length);
+        for (uint32_t i = 0; i < length; i++) {
+            JSValue element = JS_GetPropertyUint32(ctx, value, i);
+            if (JS_IsException(element))
+                return false;
+            bool encoded = encodeBinaryValue(ctx, out, element, depth + 1);
+            JS_FreeValue(ctx, element);
+            if (!encoded)
+                return false;
+        }
+        return true;
+    }
+
+    // own enumerable string keys, like JSON.stringify.
+    JSPropertyEnum *properties;
+    uint32_t count;
+    if (JS_GetOwnPropertyNames(ctx, &properties, &count, value, JS_GPN_STRING_MASK | JS_GPN_ENUM_ONLY) < 0)
+        return false;
+    bool ret = true;
+    out.push_back(BINARY_OBJECT);
+    writeUint32(out, count);
+    for (uint32_t i = 0; i < count; i++) {
+        if (ret) {
+            const char *key = JS_AtomToCString(ctx, properties[i].atom);
+            JSValue propertyValue = key != nullptr ? JS_GetProperty(ctx, value, properties[i].atom) : JS_EXCEPTION;
+            if (key == nullptr || JS_IsException(propertyValue)) {
+                ret = false;
+            }
+            else {
+                writeString(out, key, strlen(key));
+                ret = encodeBinaryValue(ctx, out, propertyValue, depth + 1);
+                JS_FreeValue(ctx, propertyValue);
+            }
+            if (key != nullptr)
+                JS_FreeCString(ctx, key);
+        }
+        JS_FreeAtom(ctx, properties[i].atom);
+    }
+    js_free(ctx, properties);
+    return ret;
+}
+
+JSValue decodeBinary(JSContext *ctx, const uint8_t *data, size_t size) {
+    BinaryReader reader = { data, data + size };
+    JSValue ret = decodeBinaryValue(ctx, reader, 0);
+    if (!JS_IsException(ret) && reader.ptr != reader.end) {
+        JS_FreeValue(ctx, ret);
+        return JS_ThrowTypeError(ctx, "QuackBinaryObject has trailing data");
+    }
+    return ret;
+}
+
+bool encodeBinary(JSContext *ctx, JSValue value, std::vector<uint8_t> &out) {
+    return encodeBinaryValue(ctx, out, value, 0);
+}
@@ -0,0 +1,13 @@
+#ifndef QUACK_QUICKJSBINARY_H
+#define QUACK_QUICKJSBINARY_H
+
+#include <stdint.h>
+#include <vector>
+#include "quickjs.h"
+
+// Decode a QuackBinaryObject buffer into a JavaScript value, or JS_EXCEPTION if it is malformed.
+JSValue decodeBinary(JSContext *ctx, const uint8_t *data, size_t size);
+// Encode a JavaScript value into the QuackBinaryObject format, returns false if an exception is pending.
+bool encodeBinary(JSContext *ctx, JSValue value, std::vector<uint8_t> &out);
+
+#endif //QUACK_QUICKJSBINARY_H
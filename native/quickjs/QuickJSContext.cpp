@@ -2,10 +2,14 @@
 #include <string>
 #include <vector>
 #include <string.h>
+#include <mutex>
+#include <chrono>
+#include <math.h>
 extern "C" {
 #include "quickjs-libc.h"
 #include "quickjs-debugger.h"
 }
+#include "QuickJSBinary.h"
 
 #define JS_IsUndefinedOrNull(value) (JS_IsUndefined(value) || JS_IsNull(value))
 
@@ -17,28 +21,42 @@ inline JSValueHolder QuickJSContext::toValueAsLocal(jlong object) {
 static JSClassID customFinalizerClassId = 0;
 static JSClassID quackObjectProxyClassId = 0;
 
-static void javaWeakRefFinalizer(QuickJSContext *ctx, JSValue val, void *udata) {
+static void javaWeakRefFinalizer(JavaVM *javaVM, JSValue val, void *udata) {
     auto weakRef = reinterpret_cast<jobject>(udata);
     if (nullptr == weakRef)
         return;
-    JNIEnv *env = getEnvFromJavaVM(ctx->javaVM);
+    JNIEnv *env = getEnvFromJavaVM(javaVM);
     env->DeleteWeakGlobalRef(weakRef);
 }
 
-static void javaRefFinalizer(QuickJSContext *ctx, JSValue val, void *udata) {
+static void javaRefFinalizer(JavaVM *javaVM, JSValue val, void *udata) {
     auto strongRef = reinterpret_cast<jobject>(udata);
     if (nullptr == strongRef)
         return;
-    JNIEnv *env = getEnvFromJavaVM(ctx->javaVM);
+    JNIEnv *env = getEnvFromJavaVM(javaVM);
     env->DeleteGlobalRef(strongRef);
 }
 
+static void releaseContextRef(QuickJSContextRef *contextRef) {
+    if (--contextRef->refCount == 0)
+        delete contextRef;
+}
+
+// the context that created the object, or null with a pending TypeError if it has been closed.
+static QuickJSContext *getContext(JSContext *ctx, CustomFinalizerData *data) {
+    QuickJSContext *ret = data->contextRef->ctx;
+    if (ret == nullptr)
+        JS_ThrowTypeError(ctx, "QuackContext is closed");
+    return ret;
+}
+
 static void customFinalizer(JSRuntime *rt, JSValue val) {
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(val, customFinalizerClassId));
     if (!data)
         return;
     if (data->finalizer)
-        data->finalizer(data->ctx, val, data->udata);
+        data->finalizer(data->javaVM, val, data->udata);
+    releaseContextRef(data->contextRef);
     free(data);
 }
 
@@ -46,7 +64,8 @@ static void quackObjectFinalizer(JSRuntime *rt, JSValue val) {
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(val, quackObjectProxyClassId));
     if (!data)
         return;
-    data->finalizer(data->ctx, val, data->udata);
+    data->finalizer(data->javaVM, val, data->udata);
+    releaseContextRef(data->contextRef);
     free(data);
 }
 
@@ -66,8 +85,10 @@ void QuickJSContext::finalizeJavaScriptObjects(JNIEnv *env, jlongArray objects)
 
 void QuickJSContext::setFinalizerOnFinalizerObject(JSValue finalizerObject, CustomFinalizer finalizer, void *udata) {
     auto *data = new CustomFinalizerData();
+    contextRef->refCount++;
     *data = {
-            this,
+            contextRef,
+            javaVM,
             finalizer,
             udata
     };
@@ -75,6 +96,14 @@ void QuickJSContext::setFinalizerOnFinalizerObject(JSValue finalizerObject, Cust
     JS_SetOpaque(finalizerObject, data);
 }
 
+static JSValue quickjs_apply_double(JSContext *ctx, JSValueConst this_val, int argc, JSValueConst *argv, int magic, JSValue *func_data) {
+    auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(func_data[0], customFinalizerClassId));
+    QuickJSContext *qctx = getContext(ctx, data);
+    if (qctx == nullptr)
+        return JS_EXCEPTION;
+    return qctx->quickjs_apply_double(reinterpret_cast<jobject>(data->udata), magic != 0, argc, argv);
+}
+
 static struct JSClassDef customFinalizerClassDef = {
         .class_name = "CustomFinalizer",
         .finalizer = customFinalizer,
@@ -82,22 +111,33 @@ static struct JSClassDef customFinalizerClassDef = {
 
 static int quickjs_has(JSContext *ctx, JSValueConst obj, JSAtom atom) {
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(obj, quackObjectProxyClassId));
+    QuickJSContext *qctx = getContext(ctx, data);
+    if (qctx == nullptr)
+        return -1;
     auto object = reinterpret_cast<jobject>(data->udata);
-    return data->ctx->quickjs_has(object, atom);
+    return qctx->quickjs_has(object, atom);
 }
 static JSValue quickjs_get(JSContext *ctx, JSValueConst obj, JSAtom atom, JSValueConst receiver) {
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(obj, quackObjectProxyClassId));
+    QuickJSContext *qctx = getContext(ctx, data);
+    if (qctx == nullptr)
+        return JS_EXCEPTION;
     auto object = reinterpret_cast<jobject>(data->udata);
-    return data->ctx->quickjs_get(object, atom, receiver);
+    return qctx->quickjs_get(object, atom, receiver);
 }
 /* return < 0 if exception or TRUE/FALSE */
 static int quickjs_set(JSContext *ctx, JSValueConst obj, JSAtom atom, JSValueConst value, JSValueConst receiver, int flags) {
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(obj, quackObjectProxyClassId));
+    QuickJSContext *qctx = getContext(ctx, data);
+    if (qctx == nullptr)
+        return -1;
     auto object = reinterpret_cast<jobject>(data->udata);
-    return data->ctx->quickjs_set(object, atom, value, receiver, flags);
+    return qctx->quickjs_set(object, atom, value, receiver, flags);
 }
 static JSValue quickjs_construct(JSContext *ctx, JSValue func_obj, JSValueConst this_val, int argc, JSValueConst *argv) {
     auto *qctx = reinterpret_cast<QuickJSContext *>(JS_GetContextOpaque(ctx));
+    if (qctx == nullptr)
+        return JS_ThrowTypeError(ctx, "QuackContext is closed");
     return qctx->quickjs_construct(func_obj, this_val, argc, argv);
 }
 JSValue quickjs_apply(JSContext *ctx, JSValueConst func_obj, JSValueConst this_val, int argc, JSValueConst *argv, int flags) {
@@ -105,8 +145,11 @@ JSValue quickjs_apply(JSContext *ctx, JSValueConst func_obj, JSValueConst this_v
         return quickjs_construct(ctx, func_obj, this_val, argc, argv);
     }
     auto *data = reinterpret_cast<CustomFinalizerData *>(JS_GetOpaque(func_obj, quackObjectProxyClassId));
+    QuickJSContext *qctx = getContext(ctx, data);
+    if (qctx == nullptr)
+        return JS_EXCEPTION;
     auto object = reinterpret_cast<jobject>(data->udata);
-    return data->ctx->quickjs_apply(object, this_val, argc, argv);
+    return qctx->quickjs_apply(object, this_val, argc, argv);
 }
 
 struct JSClassExoticMethods quackObjectProxyMethods = {
@@ -122,50 +165,49 @@ static struct JSClassDef quackObjectProxyClassDef = {
         .exotic = &quackObjectProxyMethods,
 };
 
-QuickJSContext::QuickJSContext(JavaVM* javaVM, jobject javaQuack):
-        javaVM(javaVM) {
-    runtime = JS_NewRuntime();
-    ctx = JS_NewContext(runtime);
+// replaces the lazy globalThis.std accessor with a plain property.
+static void defineStd(JSContext *ctx, JSValue value) {
+    JSValue global = JS_GetGlobalObject(ctx);
+    JS_DefinePropertyValueStr(ctx, global, "std", value, JS_PROP_C_W_E);
+    JS_FreeValue(ctx, global);
+}
 
-    // test
-    JS_SetModuleLoaderFunc(runtime, NULL, js_module_loader, NULL);
-    js_std_add_helpers(ctx, 0, nullptr);
-    js_init_module_std(ctx, "std");
-    //js_init_module_os(ctx, "os");
+static JSValue lazyStdGetter(JSContext *ctx, JSValueConst this_val, int argc, JSValueConst *argv) {
     const char *str = "import * as std from 'std';\n"
     //                  "import * as os from 'os';\n"
-                      "globalThis.std = std;\n"
+                      "globalThis.__quackStd = std;\n"
     //                  "globalThis.os = os;\n"
         ;
-    JS_Eval(ctx, str, strlen(str), "<input>", JS_EVAL_TYPE_MODULE);
-    // end test
-
-    JS_SetMaxStackSize(runtime, JS_DEFAULT_STACK_SIZE);
-
-    auto global = hold(JS_GetGlobalObject(ctx));
-    uint8ArrayConstructor = JS_GetPropertyStr(ctx, global, "Uint8Array");
-    uint8ArrayPrototype = JS_GetPropertyStr(ctx, uint8ArrayConstructor, "prototype");
-    auto arrayBufferConstructor = hold(JS_GetPropertyStr(ctx, global, "ArrayBuffer"));
-    arrayBufferPrototype = JS_GetPropertyStr(ctx, arrayBufferConstructor, "prototype");
-
-    const char *thrower_str = "(function() { try { throw new Error(); } catch (e) { return e; } })";
-    thrower_function = JS_Eval(ctx, thrower_str, strlen(thrower_str), "<thrower>", JS_EVAL_TYPE_GLOBAL);
-
-    JS_SetContextOpaque(ctx, this);
+    JSValue result = JS_Eval(ctx, str, strlen(str), "<std>", JS_EVAL_TYPE_MODULE);
+    if (JS_IsException(result))
+        return result;
+    JS_FreeValue(ctx, result);
+
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSAtom tempAtom = JS_NewAtom(ctx, "__quackStd");
+    JSValue std = JS_GetProperty(ctx, global, tempAtom);
+    JS_DeleteProperty(ctx, global, tempAtom, 0);
+    JS_FreeAtom(ctx, tempAtom);
+    JS_FreeValue(ctx, global);
+    if (JS_IsException(std))
+        return std;
+    defineStd(ctx, JS_DupValue(ctx, std));
+    return std;
+}
 
-    atomHoldsJavaObject = privateAtom("javaObject");
-    atomHoldsJavaScriptObject = privateAtom("javaScriptObject");
-    customFinalizerAtom = privateAtom("customFinalizer");
-    javaExceptionAtom = privateAtom("javaException");
-    // JS_NewClassID is static run once mechanism
-    JS_NewClassID(&customFinalizerClassId);
-    JS_NewClassID(&quackObjectProxyClassId);
-    JS_NewClass(runtime, customFinalizerClassId, &customFinalizerClassDef);
-    JS_NewClass(runtime, quackObjectProxyClassId, &quackObjectProxyClassDef);
+static JSValue lazyStdSetter(JSContext *ctx, JSValueConst this_val, int argc, JSValueConst *argv) {
+    defineStd(ctx, JS_DupValue(ctx, argv[0]));
+    return JS_UNDEFINED;
+}
 
-    JNIEnv *env = getEnvFromJavaVM(javaVM);
-    this->javaQuack = env->NewWeakGlobalRef(javaQuack);
+static jclass findClass(JNIEnv *env, const char *className) {
+    auto localClass = env->FindClass(className);
+    auto ret = (jclass)env->NewGlobalRef(localClass);
+    env->DeleteLocalRef(localClass);
+    return ret;
+}
 
+void JavaIds::init(JNIEnv *env) {
     // primitives
     objectClass = findClass(env, "java/lang/Object");
     objectToString = env->GetMethodID(objectClass, "toString", "()Ljava/lang/String;");
@@ -210,6 +252,16 @@ QuickJSContext::QuickJSContext(JavaVM* javaVM, jobject javaQuack):
     quackjsonObjectClass = findClass(env, "com/koushikdutta/quack/QuackJsonObject");
     quackJsonField = env->GetFieldID(quackjsonObjectClass, "json", "Ljava/lang/String;");
 
+    // QuackBinaryObject
+    quackBinaryObjectClass = findClass(env, "com/koushikdutta/quack/QuackBinaryObject");
+    quackBinaryBufferField = env->GetFieldID(quackBinaryObjectClass, "buffer", "Ljava/nio/ByteBuffer;");
+
+    // QuackDoubleFunction and QuackDoubleBinaryFunction, called without boxing
+    quackDoubleFunctionClass = findClass(env, "com/koushikdutta/quack/QuackDoubleFunction");
+    quackDoubleFunctionApply = env->GetMethodID(quackDoubleFunctionClass, "apply", "(D)D");
+    quackDoubleBinaryFunctionClass = findClass(env, "com/koushikdutta/quack/QuackDoubleBinaryFunction");
+    quackDoubleBinaryFunctionApply = env->GetMethodID(quackDoubleBinaryFunctionClass, "apply", "(DD)D");
+
     // JavaScriptObject
     javaScriptObjectClass = findClass(env, "com/koushikdutta/quack/JavaScriptObject");
     javaScriptObjectConstructor = env->GetMethodID(javaScriptObjectClass, "<init>", "(Lcom/koushikdutta/quack/QuackContext;JJ)V");
@@ -231,23 +283,139 @@ QuickJSContext::QuickJSContext(JavaVM* javaVM, jobject javaQuack):
     addJavaStack = env->GetStaticMethodID(quackExceptionClass, "addJavaStack", "(Ljava/lang/String;Ljava/lang/Throwable;)Ljava/lang/String;");
 }
 
+const JavaIds &getJavaIds(JNIEnv *env) {
+    static JavaIds javaIds;
+    static std::once_flag once;
+    std::call_once(once, [env]() {
+        javaIds.init(env);
+    });
+    return javaIds;
+}
+
+QuickJSContext::QuickJSContext(JavaVM* javaVM, jobject javaQuack, QuickJSContext *sibling):
+        JavaIds(getJavaIds(getEnvFromJavaVM(javaVM))),
+        javaVM(javaVM) {
+    if (sibling != nullptr) {
+        sharedRuntime = sibling->sharedRuntime;
+    }
+    else {
+        sharedRuntime = new QuickJSRuntime();
+        sharedRuntime->runtime = JS_NewRuntime();
+        sharedRuntime->contextCount = 0;
+        sharedRuntime->currentEnv = nullptr;
+        sharedRuntime->jobsPending = 0;
+    }
+    std::lock_guard<std::recursive_mutex> lock(sharedRuntime->lock);
+    sharedRuntime->contextCount++;
+    runtime = sharedRuntime->runtime;
+    // the creating thread may not be the last thread to enter the runtime.
+    JS_UpdateStackTop(runtime);
+    sharedRuntime->currentEnv = nullptr;
+    ctx = JS_NewContext(runtime);
+
+    if (sibling == nullptr) {
+        JS_SetModuleLoaderFunc(runtime, NULL, js_module_loader, NULL);
+        JS_SetMaxStackSize(runtime, JS_DEFAULT_STACK_SIZE);
+    }
+    js_std_add_helpers(ctx, 0, nullptr);
+    js_init_module_std(ctx, "std");
+    //js_init_module_os(ctx, "os");
+    // globalThis.std is only imported when it is first used.
+    {
+        auto global = hold(JS_GetGlobalObject(ctx));
+        JSAtom stdAtom = JS_NewAtom(ctx, "std");
+        JS_DefinePropertyGetSet(ctx, global, stdAtom,
+                                JS_NewCFunction(ctx, lazyStdGetter, "std", 0),
+                                JS_NewCFunction(ctx, lazyStdSetter, "std", 1),
+                                JS_PROP_CONFIGURABLE);
+        JS_FreeAtom(ctx, stdAtom);
+    }
+
+    auto global = hold(JS_GetGlobalObject(ctx));
+    uint8ArrayConstructor = JS_GetPropertyStr(ctx, global, "Uint8Array");
+    uint8ArrayPrototype = JS_GetPropertyStr(ctx, uint8ArrayConstructor, "prototype");
+    auto arrayBufferConstructor = hold(JS_GetPropertyStr(ctx, global, "ArrayBuffer"));
+    arrayBufferPrototype = JS_GetPropertyStr(ctx, arrayBufferConstructor, "prototype");
+    auto int32ArrayConstructor = hold(JS_GetPropertyStr(ctx, global, "Int32Array"));
+    int32ArrayPrototype = JS_GetPropertyStr(ctx, int32ArrayConstructor, "prototype");
+    auto float64ArrayConstructor = hold(JS_GetPropertyStr(ctx, global, "Float64Array"));
+    float64ArrayPrototype = JS_GetPropertyStr(ctx, float64ArrayConstructor, "prototype");
+
+    const char *thrower_str = "(function() { try { throw new Error(); } catch (e) { return e; } })";
+    thrower_function = JS_Eval(ctx, thrower_str, strlen(thrower_str), "<thrower>", JS_EVAL_TYPE_GLOBAL);
+    resetFunction = JS_UNDEFINED;
+    contextRef = new QuickJSContextRef();
+    *contextRef = {
+            this,
+            1
+    };
+
+    JS_SetContextOpaque(ctx, this);
+
+    atomHoldsJavaObject = privateAtom("javaObject");
+    atomHoldsJavaScriptObject = privateAtom("javaScriptObject");
+    customFinalizerAtom = privateAtom("customFinalizer");
+    javaExceptionAtom = privateAtom("javaException");
+    // JS_NewClassID is static run once mechanism
+    JS_NewClassID(&customFinalizerClassId);
+    JS_NewClassID(&quackObjectProxyClassId);
+    if (sibling == nullptr) {
+        JS_NewClass(runtime, customFinalizerClassId, &customFinalizerClassDef);
+        JS_NewClass(runtime, quackObjectProxyClassId, &quackObjectProxyClassDef);
+    }
+
+    JNIEnv *env = getEnvFromJavaVM(javaVM);
+    this->javaQuack = env->NewWeakGlobalRef(javaQuack);
+}
+
 QuickJSContext::~QuickJSContext() {
+    std::unique_lock<std::recursive_mutex> lock(sharedRuntime->lock);
+    JS_UpdateStackTop(runtime);
+    sharedRuntime->currentEnv = nullptr;
     JS_FreeValue(ctx, uint8ArrayPrototype);
     JS_FreeValue(ctx, uint8ArrayConstructor);
     JS_FreeValue(ctx, arrayBufferPrototype);
+    JS_FreeValue(ctx, int32ArrayPrototype);
+    JS_FreeValue(ctx, float64ArrayPrototype);
     stash.clear();
     JS_FreeValue(ctx, thrower_function);
+    JS_FreeValue(ctx, resetFunction);
+    // objects of this context may still be reached from the other contexts of the runtime.
+    JS_SetContextOpaque(ctx, nullptr);
+    contextRef->ctx = nullptr;
+    releaseContextRef(contextRef);
+    if (--sharedRuntime->contextCount != 0) {
+        // the jobs queued by this context must not run after it is freed.
+        JS_FreePendingJobs(ctx);
+        // the garbage of this context is collected with the rest of the shared runtime,
+        // by its gc threshold or by QuackContext.gc().
+        JS_FreeContext(ctx);
+        return;
+    }
     js_debugger_free(runtime, js_debugger_info(runtime));
     JS_FreeContext(ctx);
     JS_FreeRuntime(runtime);
+    lock.unlock();
+    delete sharedRuntime;
 }
 
-JSAtom QuickJSContext::privateAtom(const char *str) {
-    return JS_NewAtomLenPrivate(ctx, str, strlen(str));
+// QuickJS checks for stack overflow against the stack of the thread that created the runtime.
+// A JNIEnv is unique per thread, so reset the stack top whenever a different thread enters.
+void QuickJSContext::enter(JNIEnv *env) {
+    sharedRuntime->lock.lock();
+    if (env == sharedRuntime->currentEnv)
+        return;
+    sharedRuntime->currentEnv = env;
+    JS_UpdateStackTop(runtime);
 }
 
-jclass QuickJSContext::findClass(JNIEnv *env, const char *className) {
-    return (jclass)env->NewGlobalRef(env->FindClass(className));
+void QuickJSContext::leave() {
+    sharedRuntime->jobsPending = JS_IsJobPending(runtime) ? 1 : 0;
+    sharedRuntime->lock.unlock();
+}
+
+JSAtom QuickJSContext::privateAtom(const char *str) {
+    return JS_NewAtomLenPrivate(ctx, str, strlen(str));
 }
 
 jstring QuickJSContext::toString(JNIEnv *env, JSValue value) {
@@ -279,13 +447,13 @@ jstring QuickJSContext::stringify(JNIEnv *env, jlong object) {
 }
 
 struct ByteBufferOpaque {
-    QuickJSContext *context;
+    JavaVM *javaVM;
     jobject buffer;
 };
 
 void ByteBufferFree(JSRuntime *rt, void *opaque, void *ptr) {
     struct ByteBufferOpaque *bbo = reinterpret_cast<ByteBufferOpaque *>(opaque);
-    auto env = getEnvFromJavaVM(bbo->context->javaVM);
+    auto env = getEnvFromJavaVM(bbo->javaVM);
     env->DeleteGlobalRef(bbo->buffer);
     delete bbo;
 }
@@ -320,7 +488,7 @@ JSValue QuickJSContext::toObject(JNIEnv *env, jobject value) {
                 int position = env->CallIntMethod(value, bufferGetPosition);
                 int limit = env->CallIntMethod(value, bufferGetLimit);
                 auto opaque = new ByteBufferOpaque();
-                opaque->context = this;
+                opaque->javaVM = javaVM;
                 opaque->buffer = env->NewGlobalRef(value);
                 auto buffer = hold(JS_NewArrayBuffer(ctx,
                                                      reinterpret_cast<uint8_t *>(env->GetDirectBufferAddress(value))  + position,
@@ -341,6 +509,10 @@ JSValue QuickJSContext::toObject(JNIEnv *env, jobject value) {
         const char *jsonPtr = env->GetStringUTFChars(json, 0);
         return JS_ParseJSON(ctx, jsonPtr, (size_t)env->GetStringUTFLength(json), "<QuackJsonObject>");
     }
+    else if (env->IsAssignableFrom(clazz, quackBinaryObjectClass)) {
+        auto buffer = env->GetObjectField(value, quackBinaryBufferField);
+        return decodeBinary(env, buffer);
+    }
     else if (env->IsAssignableFrom(clazz, quackJavaScriptObjectClass)) {
         auto ptr = env->CallLongMethod(javaQuack, quackGetNativePointer, value);
         if (ptr != 0) {
@@ -350,6 +522,15 @@ JSValue QuickJSContext::toObject(JNIEnv *env, jobject value) {
         // a proxy already exists, but not for the correct QuackContext, so native javascript heap
         // pointer can't be used.
     }
+    else if (env->IsAssignableFrom(clazz, quackDoubleFunctionClass) || env->IsAssignableFrom(clazz, quackDoubleBinaryFunctionClass)) {
+        // a native function that passes its arguments as doubles, rather than an Object[].
+        bool binary = env->IsAssignableFrom(clazz, quackDoubleBinaryFunctionClass);
+        JSValue data = JS_NewObjectClass(ctx, customFinalizerClassId);
+        setFinalizerOnFinalizerObject(data, javaRefFinalizer, env->NewGlobalRef(value));
+        JSValue ret = JS_NewCFunctionData(ctx, ::quickjs_apply_double, binary ? 2 : 1, binary ? 1 : 0, 1, &data);
+        JS_FreeValue(ctx, data);
+        return ret;
+    }
     else if (!env->IsAssignableFrom(clazz, quackObjectClass)) {
         // a QuackObject can support a quack Proxy, and does not need any further boxing
         // so, this must be a normal Java object, create a proxy for it to access fields and methods
@@ -528,6 +709,25 @@ jobject QuickJSContext::toObjectCheckQuickJSError(JNIEnv *env, JSValue value) {
     return nullptr;
 }
 
+// numbers are converted as by the ToInt32 and ToNumber operations, undefined becomes 0 and NaN.
+jint QuickJSContext::toIntCheckQuickJSError(JNIEnv *env, JSValue value) {
+    int32_t ret = 0;
+    if (JS_IsException(value) || JS_ToInt32(ctx, &ret, value) < 0) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return 0;
+    }
+    return ret;
+}
+
+jdouble QuickJSContext::toDoubleCheckQuickJSError(JNIEnv *env, JSValue value) {
+    double ret = 0;
+    if (JS_IsException(value) || JS_ToFloat64(ctx, &ret, value) < 0) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return 0;
+    }
+    return ret;
+}
+
 jobject QuickJSContext::evaluateInternal(JNIEnv *env, jstring code, jstring filename, int flags) {
     auto codeStr = env->GetStringUTFChars(code, 0);
     size_t len = strlen(codeStr);
@@ -556,6 +756,57 @@ jobject QuickJSContext::compile(JNIEnv* env, jstring code, jstring filename) {
     return toObjectCheckQuickJSError(env, result);
 }
 
+jbyteArray QuickJSContext::compileBytecode(JNIEnv *env, jstring code, jstring filename, jboolean module) {
+    std::string codeStr = ::toStdString(env, code);
+    std::string filenameStr = ::toStdString(env, filename);
+    int flags = (module ? JS_EVAL_TYPE_MODULE : JS_EVAL_TYPE_GLOBAL) | JS_EVAL_FLAG_COMPILE_ONLY;
+    auto compiled = hold(JS_Eval(ctx, codeStr.c_str(), codeStr.size(), filenameStr.c_str(), flags));
+    if (JS_IsException(compiled)) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return nullptr;
+    }
+
+    size_t size;
+    uint8_t *bytecode = JS_WriteObject(ctx, &size, compiled, JS_WRITE_OBJ_BYTECODE);
+    if (bytecode == nullptr) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return nullptr;
+    }
+    jbyteArray ret = env->NewByteArray((jsize)size);
+    if (ret != nullptr)
+        env->SetByteArrayRegion(ret, 0, (jsize)size, reinterpret_cast<const jbyte *>(bytecode));
+    js_free(ctx, bytecode);
+    return ret;
+}
+
+jobject QuickJSContext::evaluateBytecode(JNIEnv *env, jobject bytecode) {
+    JSValue function;
+    auto address = reinterpret_cast<const uint8_t *>(env->GetDirectBufferAddress(bytecode));
+    if (address != nullptr) {
+        int position = env->CallIntMethod(bytecode, bufferGetPosition);
+        int limit = env->CallIntMethod(bytecode, bufferGetLimit);
+        function = JS_ReadObject(ctx, address + position, (size_t)(limit - position), JS_READ_OBJ_BYTECODE);
+    }
+    else {
+        auto array = (jbyteArray)bytecode;
+        jbyte *elements = env->GetByteArrayElements(array, nullptr);
+        function = JS_ReadObject(ctx, reinterpret_cast<const uint8_t *>(elements), (size_t)env->GetArrayLength(array), JS_READ_OBJ_BYTECODE);
+        env->ReleaseByteArrayElements(array, elements, JNI_ABORT);
+    }
+    if (JS_IsException(function))
+        return toObjectCheckQuickJSError(env, function);
+
+    if (JS_VALUE_GET_TAG(function) == JS_TAG_MODULE) {
+        if (JS_ResolveModule(ctx, function) < 0) {
+            JS_FreeValue(ctx, function);
+            return toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        }
+        js_module_set_import_meta(ctx, function, 1, 1);
+    }
+    auto result = hold(JS_EvalFunction(ctx, function));
+    return toObjectCheckQuickJSError(env, result);
+}
+
 jobject QuickJSContext::getGlobalObject(JNIEnv *env) {
     return toObject(env, hold(JS_GetGlobalObject(ctx)));
 }
@@ -576,7 +827,8 @@ bool QuickJSContext::callArgs(JNIEnv *env, jobjectArray args, std::vector<JSValu
                 valueArgs.push_back(argValue);
                 /// is it possible to fail during marshalling? would be catastrophic.
                 if (JS_IsException(argValue)) {
-                    rethrowQuickJSErrorToJava(env, argValue);
+                    auto exception = hold(JS_GetException(ctx));
+                    rethrowQuickJSErrorToJava(env, exception);
                     freeValues(ctx, valueArgs);
                     return false;
                 }
@@ -617,6 +869,27 @@ jobject QuickJSContext::call(JNIEnv *env, jlong object, jobjectArray args) {
     return callInternal(env, func, global, args);
 }
 
+jdouble QuickJSContext::callDouble(JNIEnv *env, jlong object, jint argc, jdouble arg0, jdouble arg1, jdoubleArray args) {
+    auto global = hold(JS_GetGlobalObject(ctx));
+    auto func = toValueAsLocal(object);
+
+    // numbers are not reference counted, so the arguments need not be freed.
+    JSValue fixedArgs[] = { JS_NewFloat64(ctx, arg0), JS_NewFloat64(ctx, arg1) };
+    JSValue *valueArgs = fixedArgs;
+    std::vector<JSValue> arrayArgs;
+    if (args != nullptr) {
+        argc = env->GetArrayLength(args);
+        jdouble *elements = env->GetDoubleArrayElements(args, 0);
+        for (jint i = 0; i < argc; i++) {
+            arrayArgs.push_back(JS_NewFloat64(ctx, elements[i]));
+        }
+        env->ReleaseDoubleArrayElements(args, elements, JNI_ABORT);
+        valueArgs = arrayArgs.data();
+    }
+
+    return toDoubleCheckQuickJSError(env, hold(JS_Call(ctx, func, global, argc, valueArgs)));
+}
+
 jobject QuickJSContext::callProperty(JNIEnv *env, jlong object, jobject property, jobjectArray args) {
     auto thiz = toValueAsLocal(object);
     auto propertyJSValue = hold(toObject(env, property));
@@ -627,16 +900,84 @@ jobject QuickJSContext::callProperty(JNIEnv *env, jlong object, jobject property
     return callInternal(env, func, thiz, args);
 }
 
+jobject QuickJSContext::callPropertyAtom(JNIEnv *env, jlong object, jint atom, jobjectArray args) {
+    auto thiz = toValueAsLocal(object);
+    auto func = hold(JS_GetProperty(ctx, thiz, (JSAtom)atom));
+    return callInternal(env, func, thiz, args);
+}
+
 jobject QuickJSContext::callMethod(JNIEnv *env, jlong method, jobject object, jobjectArray args) {
     auto thiz = hold(toObject(env, object));
     auto func = toValueAsLocal(method);
     return callInternal(env, func, thiz, args);
 }
 
+// the typeof operator, for the values that are held by a JavaScriptObject.
+jstring QuickJSContext::typeOf(JNIEnv *env, jlong object) {
+    auto value = toValueAsLocal(object);
+    const char *type;
+    switch (JS_VALUE_GET_TAG((JSValue)value)) {
+        case JS_TAG_OBJECT:
+            type = JS_IsFunction(ctx, value) ? "function" : "object";
+            break;
+        case JS_TAG_SYMBOL:
+            type = "symbol";
+            break;
+        case JS_TAG_BIG_INT:
+            type = "bigint";
+            break;
+        case JS_TAG_BIG_FLOAT:
+            type = "bigfloat";
+            break;
+        case JS_TAG_BIG_DECIMAL:
+            type = "bigdecimal";
+            break;
+        case JS_TAG_STRING:
+            type = "string";
+            break;
+        case JS_TAG_BOOL:
+            type = "boolean";
+            break;
+        case JS_TAG_UNDEFINED:
+            type = "undefined";
+            break;
+        case JS_TAG_NULL:
+            type = "object";
+            break;
+        default:
+            type = "number";
+            break;
+    }
+    return env->NewStringUTF(type);
+}
+
+jboolean QuickJSContext::isInstanceOf(JNIEnv *env, jlong object, jlong constructor) {
+    int result = JS_IsInstanceOf(ctx, toValueAsLocal(object), toValueAsLocal(constructor));
+    if (result < 0) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return JNI_FALSE;
+    }
+    return (jboolean)(result ? JNI_TRUE : JNI_FALSE);
+}
+
 jobject QuickJSContext::getKeyString(JNIEnv* env, jlong object, jstring key) {
     return toObjectCheckQuickJSError(env, hold(JS_GetPropertyStr(ctx, toValueAsLocal(object), env->GetStringUTFChars(key, 0))));
 }
 
+jint QuickJSContext::getKeyStringInt(JNIEnv* env, jlong object, jstring key) {
+    const char *keyChars = env->GetStringUTFChars(key, 0);
+    JSValue value = JS_GetPropertyStr(ctx, toValueAsLocal(object), keyChars);
+    env->ReleaseStringUTFChars(key, keyChars);
+    return toIntCheckQuickJSError(env, hold(value));
+}
+
+jdouble QuickJSContext::getKeyStringDouble(JNIEnv* env, jlong object, jstring key) {
+    const char *keyChars = env->GetStringUTFChars(key, 0);
+    JSValue value = JS_GetPropertyStr(ctx, toValueAsLocal(object), keyChars);
+    env->ReleaseStringUTFChars(key, keyChars);
+    return toDoubleCheckQuickJSError(env, hold(value));
+}
+
 jobject QuickJSContext::getKeyInteger(JNIEnv* env, jlong object, jint index) {
     return toObjectCheckQuickJSError(env, hold(JS_GetPropertyUint32(ctx, toValueAsLocal(object), (uint32_t)index)));
 }
@@ -656,6 +997,39 @@ jboolean QuickJSContext::setKeyString(JNIEnv* env, jlong object, jstring key, jo
     return checkQuickJSErrorAndThrow(env, JS_SetPropertyStr(ctx, thiz, env->GetStringUTFChars(key, 0), JS_DupValue(ctx, set)));
 }
 
+// atoms are retained by the java QuackAtom until the context is closed.
+jint QuickJSContext::newAtom(JNIEnv* env, jstring name) {
+    auto value = hold(toObject(env, name));
+    return (jint)JS_ValueToAtom(ctx, value);
+}
+
+void QuickJSContext::freeAtoms(JNIEnv* env, jintArray atoms) {
+    jsize len = env->GetArrayLength(atoms);
+    jint *ptr = env->GetIntArrayElements(atoms, 0);
+    for (int i = 0; i < len; i++) {
+        JS_FreeAtom(ctx, (JSAtom)ptr[i]);
+    }
+    env->ReleaseIntArrayElements(atoms, ptr, JNI_ABORT);
+}
+
+jobject QuickJSContext::getKeyAtom(JNIEnv* env, jlong object, jint atom) {
+    return toObjectCheckQuickJSError(env, hold(JS_GetProperty(ctx, toValueAsLocal(object), (JSAtom)atom)));
+}
+
+jint QuickJSContext::getKeyAtomInt(JNIEnv* env, jlong object, jint atom) {
+    return toIntCheckQuickJSError(env, hold(JS_GetProperty(ctx, toValueAsLocal(object), (JSAtom)atom)));
+}
+
+jdouble QuickJSContext::getKeyAtomDouble(JNIEnv* env, jlong object, jint atom) {
+    return toDoubleCheckQuickJSError(env, hold(JS_GetProperty(ctx, toValueAsLocal(object), (JSAtom)atom)));
+}
+
+jboolean QuickJSContext::setKeyAtom(JNIEnv* env, jlong object, jint atom, jobject value) {
+    auto thiz = toValueAsLocal(object);
+    auto set = hold(toObject(env, value));
+    return checkQuickJSErrorAndThrow(env, JS_SetProperty(ctx, thiz, (JSAtom)atom, JS_DupValue(ctx, set)));
+}
+
 jboolean QuickJSContext::setKeyInteger(JNIEnv* env, jlong object, jint index, jobject value) {
     auto thiz = toValueAsLocal(object);
     auto set = hold(toObject(env, value));
@@ -673,6 +1047,287 @@ jboolean QuickJSContext::setKeyObject(JNIEnv* env, jlong object, jobject key, jo
     return setKeyInternal(env, toValueAsLocal(object), key, value);
 }
 
+// batch property access, each element local ref is released as it is copied,
+// since the arrays may be larger than the local reference table.
+jobjectArray QuickJSContext::getKeys(JNIEnv* env, jlong object, jobjectArray keys) {
+    auto thiz = toValueAsLocal(object);
+    jsize length = env->GetArrayLength(keys);
+    jobjectArray ret = env->NewObjectArray(length, objectClass, nullptr);
+    for (jsize i = 0; i < length; i++) {
+        auto key = LocalRefHolder(env, env->GetObjectArrayElement(keys, i));
+        auto keyString = reinterpret_cast<jstring>((jobject)key);
+        const char *keyChars = env->GetStringUTFChars(keyString, 0);
+        auto value = hold(JS_GetPropertyStr(ctx, thiz, keyChars));
+        env->ReleaseStringUTFChars(keyString, keyChars);
+        auto element = LocalRefHolder(env, toObjectCheckQuickJSError(env, value));
+        if (env->ExceptionCheck()) {
+            env->DeleteLocalRef(ret);
+            return nullptr;
+        }
+        env->SetObjectArrayElement(ret, i, element);
+    }
+    return ret;
+}
+
+jobjectArray QuickJSContext::getRange(JNIEnv* env, jlong object, jint start, jint count) {
+    auto thiz = toValueAsLocal(object);
+    jobjectArray ret = env->NewObjectArray(count, objectClass, nullptr);
+    if (ret == nullptr)
+        return nullptr;
+    for (jint i = 0; i < count; i++) {
+        auto value = hold(JS_GetPropertyUint32(ctx, thiz, (uint32_t)(start + i)));
+        auto element = LocalRefHolder(env, toObjectCheckQuickJSError(env, value));
+        if (env->ExceptionCheck()) {
+            env->DeleteLocalRef(ret);
+            return nullptr;
+        }
+        env->SetObjectArrayElement(ret, i, element);
+    }
+    return ret;
+}
+
+jboolean QuickJSContext::setKeys(JNIEnv* env, jlong object, jobjectArray keys, jobjectArray values) {
+    auto thiz = toValueAsLocal(object);
+    jsize length = env->GetArrayLength(keys);
+    jboolean ret = JNI_TRUE;
+    for (jsize i = 0; i < length; i++) {
+        auto key = LocalRefHolder(env, env->GetObjectArrayElement(keys, i));
+        auto value = LocalRefHolder(env, env->GetObjectArrayElement(values, i));
+        auto set = hold(toObject(env, value));
+        auto keyString = reinterpret_cast<jstring>((jobject)key);
+        const char *keyChars = env->GetStringUTFChars(keyString, 0);
+        int result = JS_SetPropertyStr(ctx, thiz, keyChars, JS_DupValue(ctx, set));
+        env->ReleaseStringUTFChars(keyString, keyChars);
+        if (result < 0)
+            return checkQuickJSErrorAndThrow(env, result);
+        if (!result)
+            ret = JNI_FALSE;
+    }
+    return ret;
+}
+
+jboolean QuickJSContext::setRange(JNIEnv* env, jlong object, jint start, jobjectArray values) {
+    auto thiz = toValueAsLocal(object);
+    jsize length = env->GetArrayLength(values);
+    jboolean ret = JNI_TRUE;
+    for (jsize i = 0; i < length; i++) {
+        auto value = LocalRefHolder(env, env->GetObjectArrayElement(values, i));
+        auto set = hold(toObject(env, value));
+        int result = JS_SetPropertyUint32(ctx, thiz, (uint32_t)(start + i), JS_DupValue(ctx, set));
+        if (result < 0)
+            return checkQuickJSErrorAndThrow(env, result);
+        if (!result)
+            ret = JNI_FALSE;
+    }
+    return ret;
+}
+
+// double to int and long narrowing, as in java.
+static int32_t toJavaInt(double d) {
+    if (isnan(d))
+        return 0;
+    if (d >= (double)INT32_MAX)
+        return INT32_MAX;
+    if (d <= (double)INT32_MIN)
+        return INT32_MIN;
+    return (int32_t)d;
+}
+
+static int64_t toJavaLong(double d) {
+    if (isnan(d))
+        return 0;
+    if (d >= (double)INT64_MAX)
+        return INT64_MAX;
+    if (d <= (double)INT64_MIN)
+        return INT64_MIN;
+    return (int64_t)d;
+}
+
+// if value is a typed array with the given prototype, point to its elements.
+static bool getTypedArrayElements(JSContext *ctx, JSValue value, JSValue typedArrayPrototype, uint8_t **elements, size_t *length) {
+    JSValue prototype = JS_GetPrototype(ctx, value);
+    if (JS_IsException(prototype)) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        return false;
+    }
+    bool matches = JS_VALUE_GET_PTR(prototype) == JS_VALUE_GET_PTR(typedArrayPrototype);
+    JS_FreeValue(ctx, prototype);
+    if (!matches)
+        return false;
+    size_t offset;
+    size_t size;
+    size_t bpe;
+    JSValue ab = JS_GetTypedArrayBuffer(ctx, value, &offset, &size, &bpe);
+    if (JS_IsException(ab)) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        return false;
+    }
+    size_t abSize;
+    uint8_t *abPtr = JS_GetArrayBuffer(ctx, &abSize, ab);
+    JS_FreeValue(ctx, ab);
+    if (abPtr == nullptr)
+        return false;
+    *elements = abPtr + offset;
+    *length = size / bpe;
+    return true;
+}
+
+jobject QuickJSContext::toJavaArray(JNIEnv* env, jlong object, jint kind) {
+    auto thiz = toValueAsLocal(object);
+
+    uint8_t *elements;
+    size_t typedLength;
+    if (kind == ARRAY_INT && getTypedArrayElements(ctx, thiz, int32ArrayPrototype, &elements, &typedLength)) {
+        jintArray ret = env->NewIntArray((jsize)typedLength);
+        if (ret != nullptr)
+            env->SetIntArrayRegion(ret, 0, (jsize)typedLength, reinterpret_cast<jint *>(elements));
+        return ret;
+    }
+    if (kind == ARRAY_DOUBLE && getTypedArrayElements(ctx, thiz, float64ArrayPrototype, &elements, &typedLength)) {
+        jdoubleArray ret = env->NewDoubleArray((jsize)typedLength);
+        if (ret != nullptr)
+            env->SetDoubleArrayRegion(ret, 0, (jsize)typedLength, reinterpret_cast<jdouble *>(elements));
+        return ret;
+    }
+
+    uint32_t length = 0;
+    auto lengthValue = hold(JS_GetPropertyStr(ctx, thiz, "length"));
+    if (JS_IsException(lengthValue) || JS_ToUint32(ctx, &length, lengthValue) < 0) {
+        return toObjectCheckQuickJSError(env, JS_EXCEPTION);
+    }
+    // a java array can not hold more, and the vectors below must not grow unbounded.
+    if (length > INT32_MAX) {
+        return toObjectCheckQuickJSError(env, JS_ThrowRangeError(ctx, "array length %u is too large for java", length));
+    }
+
+    if (kind == ARRAY_OBJECT)
+        return getRange(env, object, 0, (jint)length);
+
+    // convert the elements natively, then copy them to java at once.
+    // only numbers are converted here, with the same narrowing as java, anything
+    // else returns null so that the caller coerces each element in java.
+    std::vector<jint> ints;
+    std::vector<jlong> longs;
+    std::vector<jdouble> doubles;
+    for (uint32_t i = 0; i < length; i++) {
+        auto element = hold(JS_GetPropertyUint32(ctx, thiz, i));
+        if (JS_IsException(element))
+            return toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        if (!JS_IsNumber(element))
+            return nullptr;
+        if (kind == ARRAY_INT) {
+            int32_t v = 0;
+            if (JS_IsInteger(element))
+                JS_ToInt32(ctx, &v, element);
+            else
+                v = toJavaInt(JS_VALUE_GET_FLOAT64((JSValue)element));
+            ints.push_back(v);
+        }
+        else if (kind == ARRAY_LONG) {
+            int64_t v = 0;
+            if (JS_IsInteger(element))
+                JS_ToInt64(ctx, &v, element);
+            else
+                v = toJavaLong(JS_VALUE_GET_FLOAT64((JSValue)element));
+            longs.push_back(v);
+        }
+        else {
+            double v = 0;
+            JS_ToFloat64(ctx, &v, element);
+            doubles.push_back(v);
+        }
+    }
+
+    if (kind == ARRAY_INT) {
+        jintArray ret = env->NewIntArray((jsize)length);
+        if (ret != nullptr && length)
+            env->SetIntArrayRegion(ret, 0, (jsize)length, &ints.front());
+        return ret;
+    }
+    if (kind == ARRAY_LONG) {
+        jlongArray ret = env->NewLongArray((jsize)length);
+        if (ret != nullptr && length)
+            env->SetLongArrayRegion(ret, 0, (jsize)length, &longs.front());
+        return ret;
+    }
+    jdoubleArray ret = env->NewDoubleArray((jsize)length);
+    if (ret != nullptr && length)
+        env->SetDoubleArrayRegion(ret, 0, (jsize)length, &doubles.front());
+    return ret;
+}
+
+jobject QuickJSContext::newObject(JNIEnv* env, jintArray atoms, jobjectArray values) {
+    auto ret = hold(JS_NewObject(ctx));
+    if (atoms == nullptr)
+        return toObject(env, ret);
+
+    jsize length = env->GetArrayLength(atoms);
+    jint *atomElements = env->GetIntArrayElements(atoms, nullptr);
+    for (jsize i = 0; i < length; i++) {
+        auto value = LocalRefHolder(env, env->GetObjectArrayElement(values, i));
+        // defined like the properties of an object literal, rather than set.
+        int result = JS_DefinePropertyValue(ctx, ret, (JSAtom)atomElements[i], toObject(env, value), JS_PROP_C_W_E);
+        if (result < 0) {
+            env->ReleaseIntArrayElements(atoms, atomElements, JNI_ABORT);
+            checkQuickJSErrorAndThrow(env, result);
+            return nullptr;
+        }
+    }
+    env->ReleaseIntArrayElements(atoms, atomElements, JNI_ABORT);
+    return toObject(env, ret);
+}
+
+jobject QuickJSContext::newArray(JNIEnv* env, jint length) {
+    auto ret = hold(JS_NewArray(ctx));
+    // append the elements, which keeps the array dense, unlike setting its length.
+    for (jint i = 0; i < length; i++) {
+        JS_SetPropertyUint32(ctx, ret, (uint32_t)i, JS_UNDEFINED);
+    }
+    return toObject(env, ret);
+}
+
+jobject QuickJSContext::fromJavaArray(JNIEnv* env, jobject array, jint kind) {
+    auto ret = hold(JS_NewArray(ctx));
+    jsize length = env->GetArrayLength(reinterpret_cast<jarray>(array));
+
+    if (kind == ARRAY_INT) {
+        jint *elements = env->GetIntArrayElements(reinterpret_cast<jintArray>(array), nullptr);
+        for (jsize i = 0; i < length; i++) {
+            JS_SetPropertyUint32(ctx, ret, (uint32_t)i, JS_NewInt32(ctx, elements[i]));
+        }
+        env->ReleaseIntArrayElements(reinterpret_cast<jintArray>(array), elements, JNI_ABORT);
+    }
+    else if (kind == ARRAY_LONG) {
+        jlong *elements = env->GetLongArrayElements(reinterpret_cast<jlongArray>(array), nullptr);
+        for (jsize i = 0; i < length; i++) {
+            JS_SetPropertyUint32(ctx, ret, (uint32_t)i, JS_NewInt64(ctx, elements[i]));
+        }
+        env->ReleaseLongArrayElements(reinterpret_cast<jlongArray>(array), elements, JNI_ABORT);
+    }
+    else if (kind == ARRAY_DOUBLE) {
+        jdouble *elements = env->GetDoubleArrayElements(reinterpret_cast<jdoubleArray>(array), nullptr);
+        for (jsize i = 0; i < length; i++) {
+            JS_SetPropertyUint32(ctx, ret, (uint32_t)i, JS_NewFloat64(ctx, elements[i]));
+        }
+        env->ReleaseDoubleArrayElements(reinterpret_cast<jdoubleArray>(array), elements, JNI_ABORT);
+    }
+    else {
+        auto objects = reinterpret_cast<jobjectArray>(array);
+        for (jsize i = 0; i < length; i++) {
+            auto element = LocalRefHolder(env, env->GetObjectArrayElement(objects, i));
+            JSValue value = toObject(env, element);
+            if (JS_IsException(value)) {
+                auto exception = hold(JS_GetException(ctx));
+                rethrowQuickJSErrorToJava(env, exception);
+                return nullptr;
+            }
+            JS_SetPropertyUint32(ctx, ret, (uint32_t)i, value);
+        }
+    }
+
+    return toObject(env, ret);
+}
+
 int QuickJSContext::quickjs_has(jobject object, JSAtom atom) {
     if (atom == customFinalizerAtom)
         return false;
@@ -739,6 +1394,25 @@ JSValue QuickJSContext::quickjs_apply(jobject func_obj, JSValueConst this_val, i
 
     return toObject(env, result);
 }
+JSValue QuickJSContext::quickjs_apply_double(jobject func_obj, bool binary, int argc, JSValueConst *argv) {
+    // missing arguments are undefined, which is NaN.
+    double args[] = { NAN, NAN };
+    for (int i = 0; i < argc && i < (binary ? 2 : 1); i++) {
+        if (JS_ToFloat64(ctx, &args[i], argv[i]) < 0)
+            return JS_EXCEPTION;
+    }
+
+    JNIEnv *env = getEnvFromJavaVM(javaVM);
+    jdouble result = binary
+            ? env->CallDoubleMethod(func_obj, quackDoubleBinaryFunctionApply, args[0], args[1])
+            : env->CallDoubleMethod(func_obj, quackDoubleFunctionApply, args[0]);
+
+    if (rethrowJavaExceptionToQuickJS(env))
+        return JS_EXCEPTION;
+
+    return JS_NewFloat64(ctx, result);
+}
+
 JSValue QuickJSContext::quickjs_construct(JSValue func_obj, JSValueConst this_val, int argc, JSValueConst *argv) {
     JNIEnv *env = getEnvFromJavaVM(javaVM);
 
@@ -851,12 +1525,79 @@ bool QuickJSContext::rethrowJavaExceptionToQuickJS(JNIEnv *env) {
     return true;
 }
 
-jboolean QuickJSContext::hasPendingJobs(JNIEnv *env) {
-    return (jboolean)(JS_IsJobPending(JS_GetRuntime(ctx)) ? JNI_TRUE : JNI_FALSE);
+// captures the own properties of the global object, and returns a function that restores them.
+// only the global object itself is restored, not the objects it refers to, global lexical
+// declarations, or the loaded modules.
+// the intrinsics are captured up front, and the descriptors have no prototype, so scripts
+// that run between checkpoint and reset can't interfere with the reset.
+static const char *checkpointSource =
+    "(function(global) {\n"
+    "  var ownKeys = Reflect.ownKeys, getDescriptor = Object.getOwnPropertyDescriptor;\n"
+    "  var defineProperty = Reflect.defineProperty, deleteProperty = Reflect.deleteProperty;\n"
+    "  var setPrototypeOf = Object.setPrototypeOf;\n"
+    "  var keys = ownKeys(global);\n"
+    "  var saved = setPrototypeOf({}, null);\n"
+    "  for (var i = 0; i < keys.length; i++)\n"
+    "    saved[keys[i]] = setPrototypeOf(getDescriptor(global, keys[i]), null);\n"
+    "  return function() {\n"
+    "    var current = ownKeys(global);\n"
+    "    for (var i = 0; i < current.length; i++) {\n"
+    "      var key = current[i];\n"
+    "      if (key in saved)\n"
+    "        continue;\n"
+    "      // var declarations can not be deleted, so clear them instead.\n"
+    "      if (!deleteProperty(global, key))\n"
+    "        defineProperty(global, key, setPrototypeOf({ value: undefined }, null));\n"
+    "    }\n"
+    "    for (var i = 0; i < keys.length; i++)\n"
+    "      defineProperty(global, keys[i], saved[keys[i]]);\n"
+    "  };\n"
+    "})";
+
+void QuickJSContext::checkpoint(JNIEnv *env) {
+    auto checkpointFunction = hold(JS_Eval(ctx, checkpointSource, strlen(checkpointSource), "<checkpoint>", JS_EVAL_TYPE_GLOBAL));
+    if (JS_IsException(checkpointFunction)) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return;
+    }
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSValue reset = JS_Call(ctx, checkpointFunction, JS_UNDEFINED, 1, &global);
+    JS_FreeValue(ctx, global);
+    if (JS_IsException(reset)) {
+        toObjectCheckQuickJSError(env, reset);
+        return;
+    }
+    JS_FreeValue(ctx, resetFunction);
+    resetFunction = reset;
+}
+
+jboolean QuickJSContext::reset(JNIEnv *env) {
+    if (JS_IsUndefined(resetFunction))
+        return JNI_FALSE;
+    auto result = hold(JS_Call(ctx, resetFunction, JS_UNDEFINED, 0, nullptr));
+    if (JS_IsException(result)) {
+        toObjectCheckQuickJSError(env, JS_EXCEPTION);
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
+jobject QuickJSContext::getJobsPendingFlag(JNIEnv *env) {
+    return env->NewDirectByteBuffer(&sharedRuntime->jobsPending, 1);
 }
 
-void QuickJSContext::runJobs(JNIEnv *env) {
+jboolean QuickJSContext::runJobs(JNIEnv *env, jint maxJobs, jlong maxNanos) {
+    std::chrono::steady_clock::time_point start;
+    if (maxNanos > 0)
+        start = std::chrono::steady_clock::now();
+    jint count = 0;
     while (JS_IsJobPending(runtime)) {
+        if (maxJobs > 0 && count >= maxJobs)
+            return JNI_TRUE;
+        if (maxNanos > 0 && std::chrono::duration_cast<std::chrono::nanoseconds>(std::chrono::steady_clock::now() - start).count() >= maxNanos)
+            return JNI_TRUE;
+        count++;
+
         JSContext *pctx;
 //        if (JS_ExecutePendingJob(runtime, &pctx))
 //            JS_FreeValue(ctx, JS_GetException(ctx));
@@ -866,6 +1607,7 @@ void QuickJSContext::runJobs(JNIEnv *env) {
         if (JS_ExecutePendingJob(runtime, &pctx) < 0)
             printf("uhhh\n");
     }
+    return JNI_FALSE;
 }
 
 jlong QuickJSContext::getHeapSize(JNIEnv* env) {
@@ -885,3 +1627,24 @@ jboolean QuickJSContext::isDebugging() {
 void QuickJSContext::cooperateDebugger() {
     js_debugger_cooperate(ctx);
 }
+
+JSValue QuickJSContext::decodeBinary(JNIEnv *env, jobject buffer) {
+    auto address = reinterpret_cast<const uint8_t *>(env->GetDirectBufferAddress(buffer));
+    if (address == nullptr)
+        return JS_ThrowTypeError(ctx, "QuackBinaryObject requires a direct ByteBuffer");
+    int position = env->CallIntMethod(buffer, bufferGetPosition);
+    int limit = env->CallIntMethod(buffer, bufferGetLimit);
+    return ::decodeBinary(ctx, address + position, (size_t)(limit - position));
+}
+
+jobject QuickJSContext::encodeBinary(JNIEnv *env, jlong object) {
+    std::vector<uint8_t> out;
+    if (!::encodeBinary(ctx, toValueAsLocal(object), out)) {
+        return toObjectCheckQuickJSError(env, JS_EXCEPTION);
+    }
+    jobject buffer = env->CallStaticObjectMethod(byteBufferClass, byteBufferAllocateDirect, (jint)out.size());
+    if (buffer == nullptr)
+        return nullptr;
+    memcpy(env->GetDirectBufferAddress(buffer), &out.front(), out.size());
+    return buffer;
+}
@@ -9,12 +9,31 @@
 #include <vector>
 #include <map>
 #include <assert.h>
+#include <mutex>
 
 class QuickJSContext;
 
-typedef void CustomFinalizer(QuickJSContext *ctx, JSValue val, void *udata);
-typedef struct CustomFinalizerData {
+// array kinds for bulk array transfer, matching QuackContext.ARRAY_*.
+enum JavaArrayKind {
+    ARRAY_OBJECT = 0,
+    ARRAY_INT = 1,
+    ARRAY_LONG = 2,
+    ARRAY_DOUBLE = 3,
+};
+
+// finalizers may run after the context that created the object has been freed,
+// when a sibling context collects the shared runtime, so they are only given the JavaVM.
+typedef void CustomFinalizer(JavaVM *javaVM, JSValue val, void *udata);
+// the objects of a context may also be reached from the other contexts of the shared runtime
+// after it has been closed, so they refer to it through this, which is cleared on close.
+// guarded by the runtime lock.
+typedef struct QuickJSContextRef {
     QuickJSContext *ctx;
+    int refCount;
+} QuickJSContextRef;
+typedef struct CustomFinalizerData {
+    QuickJSContextRef *contextRef;
+    JavaVM *javaVM;
     CustomFinalizer *finalizer;
     void *udata;
 } CustomFinalizerData;
@@ -102,20 +121,97 @@ private:
     JSValue value;
 };
 
-class QuickJSContext : public JSContext {
+// JNI class, method, and field ids. These are resolved once, when the library is loaded,
+// and copied into each context.
+struct JavaIds {
+    jclass objectClass;
+    jmethodID objectToString;
+
+    jclass quackJavaObject;
+    jclass quackClass;
+    jclass quackObjectClass;
+    jclass quackJavaScriptObjectClass;
+    jclass javaScriptObjectClass;
+    jclass javaObjectClass;
+    jmethodID quackJavaObjectGetObject;
+    jclass quackjsonObjectClass;
+    jclass quackBinaryObjectClass;
+    jmethodID quackHasMethod;
+    jmethodID quackGetMethod;
+    jmethodID quackSetMethod;
+    jmethodID quackApplyMethod;
+    jmethodID quackMapNativeMethod;
+    jmethodID quackUnmapNativeMethod;
+    jmethodID quackConstructMethod;
+    jmethodID javaScriptObjectConstructor;
+    jmethodID javaObjectConstructor;
+    jmethodID byteBufferAllocateDirect;
+    jmethodID bufferGetLimit;
+    jmethodID bufferGetPosition;
+    jmethodID bufferSetPosition;
+    jmethodID bufferClear;
+    jmethodID quackGetNativePointer;
+    jfieldID quackJsonField;
+    jfieldID quackBinaryBufferField;
+    jclass quackDoubleFunctionClass;
+    jmethodID quackDoubleFunctionApply;
+    jclass quackDoubleBinaryFunctionClass;
+    jmethodID quackDoubleBinaryFunctionApply;
+
+    jclass booleanClass;
+    jmethodID booleanValueOf;
+    jmethodID booleanValue;
+    jclass intClass;
+    jmethodID intValueOf;
+    jmethodID intValue;
+    jclass longClass;
+    jmethodID longValueOf;
+    jmethodID longValue;
+    jclass doubleClass;
+    jmethodID doubleValueOf;
+    jmethodID doubleValue;
+    jclass stringClass;
+    jclass byteBufferClass;
+
+    jclass quackExceptionClass;
+    jmethodID addJSStack;
+    jmethodID addJavaStack;
+
+    void init(JNIEnv *env);
+};
+
+// the ids resolved in JNI_OnLoad, or on first use if the library was loaded another way.
+const JavaIds &getJavaIds(JNIEnv *env);
+
+// a JSRuntime, which may be shared by sibling contexts. runtimes are not thread safe,
+// so contexts are entered under the runtime lock.
+struct QuickJSRuntime {
+    JSRuntime *runtime;
+    int contextCount;
+    std::recursive_mutex lock;
+    JNIEnv *currentEnv;
+    // set when leaving the runtime with jobs pending. read by java through a direct buffer,
+    // so it can skip a native call after every invocation.
+    uint8_t jobsPending;
+};
+
+class QuickJSContext : public JSContext, public JavaIds {
 public:
-    explicit QuickJSContext(JavaVM* javaVM, jobject javaQuack);
+    // creates a context in a new runtime, or in the runtime of the sibling.
+    explicit QuickJSContext(JavaVM* javaVM, jobject javaQuack, QuickJSContext *sibling = nullptr);
     ~QuickJSContext();
     QuickJSContext(const QuickJSContext &) = delete;
     QuickJSContext & operator=(const QuickJSContext &) = delete;
 
+    void enter(JNIEnv *env);
+    void leave();
+
     JSAtom privateAtom(const char *str);
 
     inline JSValueHolder hold(JSValue value) {
         return JSValueHolder(ctx, value);
     }
 
-    jclass findClass(JNIEnv *env, const char *className);
 
     std::string toStdString(JSValue value);
     jstring toString(JNIEnv *env, JSValue value);
@@ -136,9 +232,13 @@ public:
     jobject evaluate(JNIEnv *env, jstring code, jstring filename) { return evaluateInternal(env, code, filename, JS_EVAL_TYPE_GLOBAL); }
     jobject evaluateModule(JNIEnv *env, jstring code, jstring filename) { return evaluateInternal(env, code, filename, JS_EVAL_TYPE_MODULE | JS_EVAL_FLAG_COMPILE_ONLY); }
     jobject compile(JNIEnv* env, jstring code, jstring filename);
+    jbyteArray compileBytecode(JNIEnv* env, jstring code, jstring filename, jboolean module);
+    jobject evaluateBytecode(JNIEnv* env, jobject bytecode);
 
     jobject getGlobalObject(JNIEnv *env);
     jstring stringify(JNIEnv *env, jlong object);
+    jstring typeOf(JNIEnv *env, jlong object);
+    jboolean isInstanceOf(JNIEnv *env, jlong object, jlong constructor);
 
     jobject getKeyString(JNIEnv* env, jlong object, jstring key);
     jobject getKeyInteger(JNIEnv* env, jlong object, jint index);
@@ -147,16 +247,40 @@ public:
     jboolean setKeyInteger(JNIEnv* env, jlong object, jint index, jobject value);
     jboolean setKeyInternal(JNIEnv* env, JSValue thiz, jobject key, jobject value);
     jboolean setKeyObject(JNIEnv* env, jlong object, jobject key, jobject value);
+    jint newAtom(JNIEnv* env, jstring name);
+    void freeAtoms(JNIEnv* env, jintArray atoms);
+    jobject getKeyAtom(JNIEnv* env, jlong object, jint atom);
+    jboolean setKeyAtom(JNIEnv* env, jlong object, jint atom, jobject value);
+    jint getKeyStringInt(JNIEnv* env, jlong object, jstring key);
+    jdouble getKeyStringDouble(JNIEnv* env, jlong object, jstring key);
+    jint getKeyAtomInt(JNIEnv* env, jlong object, jint atom);
+    jdouble getKeyAtomDouble(JNIEnv* env, jlong object, jint atom);
+    jint toIntCheckQuickJSError(JNIEnv *env, JSValue value);
+    jdouble toDoubleCheckQuickJSError(JNIEnv *env, JSValue value);
+    jobjectArray getKeys(JNIEnv* env, jlong object, jobjectArray keys);
+    jobjectArray getRange(JNIEnv* env, jlong object, jint start, jint count);
+    jboolean setKeys(JNIEnv* env, jlong object, jobjectArray keys, jobjectArray values);
+    jboolean setRange(JNIEnv* env, jlong object, jint start, jobjectArray values);
+    jobject newObject(JNIEnv* env, jintArray atoms, jobjectArray values);
+    jobject newArray(JNIEnv* env, jint length);
+    jobject toJavaArray(JNIEnv* env, jlong object, jint kind);
+    jobject fromJavaArray(JNIEnv* env, jobject array, jint kind);
+    JSValue decodeBinary(JNIEnv* env, jobject buffer);
+    jobject encodeBinary(JNIEnv* env, jlong object);
 
     bool callArgs(JNIEnv *env, jobjectArray args, std::vector<JSValue> &valueArgs);
     jobject callInternal(JNIEnv *env, JSValue func, JSValue thiz, jobjectArray args);
     jobject callConstructor(JNIEnv *env, jlong object, jobjectArray args);
     jobject call(JNIEnv *env, jlong object, jobjectArray args);
     jobject callProperty(JNIEnv *env, jlong object, jobject property, jobjectArray args);
+    jobject callPropertyAtom(JNIEnv *env, jlong object, jint atom, jobjectArray args);
     jobject callMethod(JNIEnv *env, jlong method, jobject object, jobjectArray args);
+    jdouble callDouble(JNIEnv *env, jlong object, jint argc, jdouble arg0, jdouble arg1, jdoubleArray args);
 
-    jboolean hasPendingJobs(JNIEnv *env);
-    void runJobs(JNIEnv *env);
+    jobject getJobsPendingFlag(JNIEnv *env);
+    jboolean runJobs(JNIEnv *env, jint maxJobs, jlong maxNanos);
+    void checkpoint(JNIEnv *env);
+    jboolean reset(JNIEnv *env);
 
     void waitForDebugger(JNIEnv *env, jstring connectionString);
     void cooperateDebugger();
@@ -169,6 +293,7 @@ public:
     JSValue quickjs_get(jobject object, JSAtom atom, JSValueConst receiver);
     int quickjs_set(jobject object, JSAtom atom, JSValueConst value, JSValueConst receiver, int flags);
     JSValue quickjs_apply(jobject func_obj, JSValueConst this_val, int argc, JSValueConst *argv);
+    JSValue quickjs_apply_double(jobject func_obj, bool binary, int argc, JSValueConst *argv);
     JSValue quickjs_construct(JSValue func_obj, JSValueConst this_val, int argc, JSValueConst *argv);
 
     jboolean checkQuickJSErrorAndThrow(JNIEnv *env, int maybeException);
@@ -177,57 +302,13 @@ public:
 
     JavaVM* javaVM;
     jobject javaQuack;
+    QuickJSRuntime *sharedRuntime;
     JSRuntime *runtime;
     JSContext *ctx;
     std::map<jlong, JSValueHolder> stash;
     JSValue thrower_function;
-
-    jclass objectClass;
-    jmethodID objectToString;
-
-    jclass quackJavaObject;
-    jclass quackClass;
-    jclass quackObjectClass;
-    jclass quackJavaScriptObjectClass;
-    jclass javaScriptObjectClass;
-    jclass javaObjectClass;
-    jmethodID quackJavaObjectGetObject;
-    jclass quackjsonObjectClass;
-    jmethodID quackHasMethod;
-    jmethodID quackGetMethod;
-    jmethodID quackSetMethod;
-    jmethodID quackApplyMethod;
-    jmethodID quackMapNativeMethod;
-    jmethodID quackUnmapNativeMethod;
-    jmethodID quackConstructMethod;
-    jmethodID javaScriptObjectConstructor;
-    jmethodID javaObjectConstructor;
-    jmethodID byteBufferAllocateDirect;
-    jmethodID bufferGetLimit;
-    jmethodID bufferGetPosition;
-    jmethodID bufferSetPosition;
-    jmethodID bufferClear;
-    jmethodID quackGetNativePointer;
-    jfieldID quackJsonField;
-
-    jclass booleanClass;
-    jmethodID booleanValueOf;
-    jmethodID booleanValue;
-    jclass intClass;
-    jmethodID intValueOf;
-    jmethodID intValue;
-    jclass longClass;
-    jmethodID longValueOf;
-    jmethodID longValue;
-    jclass doubleClass;
-    jmethodID doubleValueOf;
-    jmethodID doubleValue;
-    jclass stringClass;
-    jclass byteBufferClass;
-
-    jclass quackExceptionClass;
-    jmethodID addJSStack;
-    jmethodID addJavaStack;
+    JSValue resetFunction;
+    QuickJSContextRef *contextRef;
 
     JSAtom atomHoldsJavaObject;
     JSAtom atomHoldsJavaScriptObject;
@@ -236,6 +317,8 @@ public:
     JSValue uint8ArrayConstructor;
     JSValue arrayBufferPrototype;
     JSValue uint8ArrayPrototype;
+    JSValue int32ArrayPrototype;
+    JSValue float64ArrayPrototype;
 };
 
 #endif
@@ -20,8 +20,63 @@
 #include "JSContext.h"
 #include "QuickJSContext.h"
 
+// the context will be used by whatever thread holds the QuackContext lock.
+// sibling contexts share a runtime, so the context also holds the runtime lock until the
+// end of the full expression that entered it.
+class EnteredContext {
+public:
+    EnteredContext(JNIEnv *env, JSContext *context):
+        context(context) {
+        context->enter(env);
+    }
+    EnteredContext(EnteredContext &&other):
+        context(other.context) {
+        other.context = nullptr;
+    }
+    EnteredContext(const EnteredContext &) = delete;
+    EnteredContext & operator=(const EnteredContext &) = delete;
+    ~EnteredContext() {
+        if (context != nullptr)
+            context->leave();
+    }
+    JSContext *operator->() const {
+        return context;
+    }
+
+private:
+    JSContext *context;
+};
+
+static inline EnteredContext enterContext(JNIEnv *env, jlong context) {
+    return EnteredContext(env, reinterpret_cast<JSContext *>(context));
+}
+
 extern "C" {
 
+#ifndef CONFIG_VERSION
+#define CONFIG_VERSION "unknown"
+#endif
+#define QUACK_STRINGIFY_VALUE(x) #x
+#define QUACK_STRINGIFY(x) QUACK_STRINGIFY_VALUE(x)
+
+// bytecode is only readable by the build that wrote it, and is not validated when it is read.
+JNIEXPORT jstring JNICALL
+Java_com_koushikdutta_quack_QuackContext_getBytecodeVersion(JNIEnv *env, jclass type) {
+    return env->NewStringUTF("quickjs " CONFIG_VERSION
+                             " built " __DATE__ " " __TIME__
+                             " pointer " QUACK_STRINGIFY(__SIZEOF_POINTER__));
+}
+
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK)
+        return JNI_ERR;
+    // resolve the JNI ids shared by all contexts up front, with the class loader of the library.
+    getJavaIds(env);
+    return JNI_VERSION_1_6;
+}
+
 JNIEXPORT jlong JNICALL
 Java_com_koushikdutta_quack_QuackContext_createContext(JNIEnv* env, jclass type, jobject javaDuktape, jboolean useQuickJS) {
     JavaVM* javaVM;
@@ -33,6 +88,18 @@ Java_com_koushikdutta_quack_QuackContext_createContext(JNIEnv* env, jclass type,
     }
 }
 
+JNIEXPORT jlong JNICALL
+Java_com_koushikdutta_quack_QuackContext_createSiblingContext(JNIEnv* env, jclass type, jobject javaQuack, jlong sibling) {
+    JavaVM* javaVM;
+    env->GetJavaVM(&javaVM);
+    try {
+        return reinterpret_cast<jlong>(new QuickJSContext(javaVM, javaQuack, reinterpret_cast<QuickJSContext *>(sibling)));
+    }
+    catch (std::bad_alloc&) {
+        return 0L;
+    }
+}
+
 JNIEXPORT void JNICALL
 Java_com_koushikdutta_quack_QuackContext_destroyContext(JNIEnv *env, jclass type, jlong context) {
   delete reinterpret_cast<JSContext *>(context);
@@ -45,7 +112,7 @@ Java_com_koushikdutta_quack_QuackContext_waitForDebugger(JNIEnv *env, jclass typ
 
 JNIEXPORT void JNICALL
 Java_com_koushikdutta_quack_QuackContext_cooperateDebugger(JNIEnv *env, jclass type, jlong context) {
-    reinterpret_cast<JSContext *>(context)->cooperateDebugger();
+    enterContext(env, context)->cooperateDebugger();
 }
 
 JNIEXPORT jboolean JNICALL
@@ -57,23 +124,23 @@ JNIEXPORT void JNICALL
 Java_com_koushikdutta_quack_QuackContext_debuggerAppNotify(JNIEnv *env, jclass type,
                                            jlong context,
                                            jobjectArray args) {
-    reinterpret_cast<JSContext *>(context)->debuggerAppNotify(env, args);
+    enterContext(env, context)->debuggerAppNotify(env, args);
 }
 
 JNIEXPORT jstring JNICALL
 Java_com_koushikdutta_quack_QuackContext_stringify(JNIEnv *env, jclass type, jlong context, jlong object) {
-  return reinterpret_cast<JSContext *>(context)->stringify(env, object);
+  return enterContext(env, context)->stringify(env, object);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_getGlobalObject(JNIEnv *env, jclass type, jlong context) {
-    return reinterpret_cast<JSContext *>(context)->getGlobalObject(env);
+    return enterContext(env, context)->getGlobalObject(env);
 }
 
 JNIEXPORT void JNICALL
 Java_com_koushikdutta_quack_QuackContext_finalizeJavaScriptObjects(JNIEnv *env, jclass type,
                                                                jlong context, jlongArray objects) {
-    return reinterpret_cast<JSContext *>(context)->finalizeJavaScriptObjects(env, objects);
+    return enterContext(env, context)->finalizeJavaScriptObjects(env, objects);
                                        
 }
 
@@ -81,20 +148,26 @@ JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_call(JNIEnv *env, jclass type,
                                            jlong context, jlong object,
                                            jobjectArray args) {
-    return reinterpret_cast<JSContext *>(context)->call(env, object, args);
+    return enterContext(env, context)->call(env, object, args);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_callConstructor(JNIEnv *env, jclass type,
                                            jlong context, jlong object,
                                            jobjectArray args) {
-    return reinterpret_cast<JSContext *>(context)->callConstructor(env, object, args);
+    return enterContext(env, context)->callConstructor(env, object, args);
+}
+
+JNIEXPORT jdouble JNICALL
+Java_com_koushikdutta_quack_QuackContext_callDouble(JNIEnv *env, jclass type, jlong context, jlong object,
+                                                    jint argc, jdouble arg0, jdouble arg1, jdoubleArray args) {
+    return enterContext(env, context)->callDouble(env, object, argc, arg0, arg1, args);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_callMethod(
         JNIEnv *env, jclass type, jlong context, jlong object, jobject thiz, jobjectArray args) {
-    return reinterpret_cast<JSContext *>(context)->callMethod(env, object, thiz, args);
+    return enterContext(env, context)->callMethod(env, object, thiz, args);
 }
 
 JNIEXPORT jobject JNICALL
@@ -102,72 +175,194 @@ Java_com_koushikdutta_quack_QuackContext_callProperty(JNIEnv *env, jclass type,
                                            jlong context, jlong object,
                                            jobject property,
                                            jobjectArray args) {
-    return reinterpret_cast<JSContext *>(context)->callProperty(env, object, property, args);
+    return enterContext(env, context)->callProperty(env, object, property, args);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_callPropertyAtom(JNIEnv *env, jclass type, jlong context, jlong object, jint atom, jobjectArray args) {
+    return enterContext(env, context)->callPropertyAtom(env, object, atom, args);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_koushikdutta_quack_QuackContext_newAtom(JNIEnv *env, jclass type, jlong context, jstring name) {
+    return enterContext(env, context)->newAtom(env, name);
+}
+
+JNIEXPORT void JNICALL
+Java_com_koushikdutta_quack_QuackContext_freeAtoms(JNIEnv *env, jclass type, jlong context, jintArray atoms) {
+    enterContext(env, context)->freeAtoms(env, atoms);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeyAtom(JNIEnv *env, jclass type, jlong context, jlong object, jint atom) {
+    return enterContext(env, context)->getKeyAtom(env, object, atom);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_setKeyAtom(JNIEnv *env, jclass type, jlong context, jlong object, jint atom, jobject value) {
+    return enterContext(env, context)->setKeyAtom(env, object, atom, value);
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_koushikdutta_quack_QuackContext_typeOf(JNIEnv *env, jclass type, jlong context, jlong object) {
+    return enterContext(env, context)->typeOf(env, object);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_isInstanceOf(JNIEnv *env, jclass type, jlong context, jlong object, jlong constructor) {
+    return enterContext(env, context)->isInstanceOf(env, object, constructor);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeyStringInt(JNIEnv *env, jclass type, jlong context, jlong object, jstring key) {
+    return enterContext(env, context)->getKeyStringInt(env, object, key);
+}
+
+JNIEXPORT jdouble JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeyStringDouble(JNIEnv *env, jclass type, jlong context, jlong object, jstring key) {
+    return enterContext(env, context)->getKeyStringDouble(env, object, key);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeyAtomInt(JNIEnv *env, jclass type, jlong context, jlong object, jint atom) {
+    return enterContext(env, context)->getKeyAtomInt(env, object, atom);
+}
+
+JNIEXPORT jdouble JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeyAtomDouble(JNIEnv *env, jclass type, jlong context, jlong object, jint atom) {
+    return enterContext(env, context)->getKeyAtomDouble(env, object, atom);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_getKeyObject(JNIEnv *env, jclass type, jlong context,
                                                jlong object, jobject key) {
-    return reinterpret_cast<JSContext *>(context)->getKeyObject(env, object, key);
+    return enterContext(env, context)->getKeyObject(env, object, key);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_getKeyInteger(JNIEnv *env, jclass type, jlong context, jlong object, jint index) {
-    return reinterpret_cast<JSContext *>(context)->getKeyInteger(env, object, index);
+    return enterContext(env, context)->getKeyInteger(env, object, index);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_getKeyString(JNIEnv *env, jclass type, jlong context, jlong object, jstring key) {
-    return reinterpret_cast<JSContext *>(context)->getKeyString(env, object, key);
+    return enterContext(env, context)->getKeyString(env, object, key);
 }
 
 JNIEXPORT jboolean JNICALL
 Java_com_koushikdutta_quack_QuackContext_setKeyObject(JNIEnv *env, jclass type, jlong context,
                                                jlong object, jobject key, jobject value) {
-    return reinterpret_cast<JSContext *>(context)->setKeyObject(env, object, key, value);
+    return enterContext(env, context)->setKeyObject(env, object, key, value);
 }
 
 JNIEXPORT jboolean JNICALL
 Java_com_koushikdutta_quack_QuackContext_setKeyInteger(JNIEnv *env, jclass type, jlong context, jlong object, jint index, jobject value) {
-    return reinterpret_cast<JSContext *>(context)->setKeyInteger(env, object, index, value);
+    return enterContext(env, context)->setKeyInteger(env, object, index, value);
 }
 
 JNIEXPORT jboolean JNICALL
 Java_com_koushikdutta_quack_QuackContext_setKeyString(JNIEnv *env, jclass type, jlong context, jlong object, jstring key, jobject value) {
-    return reinterpret_cast<JSContext *>(context)->setKeyString(env, object, key, value);
+    return enterContext(env, context)->setKeyString(env, object, key, value);
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_koushikdutta_quack_QuackContext_getKeys(JNIEnv *env, jclass type, jlong context, jlong object, jobjectArray keys) {
+    return enterContext(env, context)->getKeys(env, object, keys);
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_koushikdutta_quack_QuackContext_getRange(JNIEnv *env, jclass type, jlong context, jlong object, jint start, jint count) {
+    return enterContext(env, context)->getRange(env, object, start, count);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_setKeys(JNIEnv *env, jclass type, jlong context, jlong object, jobjectArray keys, jobjectArray values) {
+    return enterContext(env, context)->setKeys(env, object, keys, values);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_setRange(JNIEnv *env, jclass type, jlong context, jlong object, jint start, jobjectArray values) {
+    return enterContext(env, context)->setRange(env, object, start, values);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_newObject(JNIEnv *env, jclass type, jlong context, jintArray atoms, jobjectArray values) {
+    return enterContext(env, context)->newObject(env, atoms, values);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_newArray(JNIEnv *env, jclass type, jlong context, jint length) {
+    return enterContext(env, context)->newArray(env, length);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_toJavaArray(JNIEnv *env, jclass type, jlong context, jlong object, jint kind) {
+    return enterContext(env, context)->toJavaArray(env, object, kind);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_fromJavaArray(JNIEnv *env, jclass type, jlong context, jobject array, jint kind) {
+    return enterContext(env, context)->fromJavaArray(env, array, kind);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_encodeBinary(JNIEnv *env, jclass type, jlong context, jlong object) {
+    return enterContext(env, context)->encodeBinary(env, object);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_compileFunction(
         JNIEnv* env, jclass type, jlong context, jstring code, jstring fname) {
-    return reinterpret_cast<JSContext *>(context)->compile(env, code, fname);
+    return enterContext(env, context)->compile(env, code, fname);
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_com_koushikdutta_quack_QuackContext_compileBytecode(
+        JNIEnv* env, jclass type, jlong context, jstring code, jstring fname, jboolean module) {
+    return enterContext(env, context)->compileBytecode(env, code, fname, module);
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_evaluateBytecode(
+        JNIEnv* env, jclass type, jlong context, jobject bytecode) {
+    return enterContext(env, context)->evaluateBytecode(env, bytecode);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_evaluate(
     JNIEnv* env, jclass type, jlong context, jstring code, jstring fname) {
-    return reinterpret_cast<JSContext *>(context)->evaluate(env, code, fname);
+    return enterContext(env, context)->evaluate(env, code, fname);
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_koushikdutta_quack_QuackContext_evaluateModule(
     JNIEnv* env, jclass type, jlong context, jstring code, jstring fname) {
-    return reinterpret_cast<JSContext *>(context)->evaluateModule(env, code, fname);
+    return enterContext(env, context)->evaluateModule(env, code, fname);
 }
 
 JNIEXPORT jlong JNICALL
 Java_com_koushikdutta_quack_QuackContext_getHeapSize__J(JNIEnv *env, jclass type, jlong context) {
-    return reinterpret_cast<JSContext *>(context)->getHeapSize(env);
+    return enterContext(env, context)->getHeapSize(env);
 }
 
-JNIEXPORT jboolean  JNICALL
-Java_com_koushikdutta_quack_QuackContext_hasPendingJobs(JNIEnv *env, jclass type, jlong context) {
-    return reinterpret_cast<JSContext *>(context)->hasPendingJobs(env);
+JNIEXPORT jobject JNICALL
+Java_com_koushikdutta_quack_QuackContext_getJobsPendingFlag(JNIEnv *env, jclass type, jlong context) {
+    return reinterpret_cast<JSContext *>(context)->getJobsPendingFlag(env);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_runJobs(JNIEnv *env, jclass type, jlong context, jint maxJobs, jlong maxNanos) {
+    return enterContext(env, context)->runJobs(env, maxJobs, maxNanos);
 }
 
 JNIEXPORT void JNICALL
-Java_com_koushikdutta_quack_QuackContext_runJobs(JNIEnv *env, jclass type, jlong context) {
-    reinterpret_cast<JSContext *>(context)->runJobs(env);
+Java_com_koushikdutta_quack_QuackContext_checkpoint__J(JNIEnv *env, jclass type, jlong context) {
+    enterContext(env, context)->checkpoint(env);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_koushikdutta_quack_QuackContext_reset__J(JNIEnv *env, jclass type, jlong context) {
+    return enterContext(env, context)->reset(env);
 }
 
 } // extern "C"
@@ -0,0 +1,180 @@
+package com.koushikdutta.quack;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.koushikdutta.quack.QuackContext.isEmpty;
+
+/**
+ * Reflection metadata of a class, as seen from JavaScript.
+ * Built once per class, so property and method access on a JavaObject are map lookups
+ * rather than scans of the reflected members.
+ * Bindings are cached in a bounded LRU, so classes that are no longer used, ie from
+ * discarded class loaders, are eventually released.
+ */
+final class ClassBinding {
+    private static final Method[] EMPTY_METHODS = new Method[0];
+    private static final Memoize<ClassBinding> bindings = new Memoize<>(QuackContext.REFLECTION_CACHE_SIZE);
+
+    static ClassBinding of(Class<?> clazz) {
+        // building is idempotent, a concurrent duplicate is harmless.
+        return bindings.memoize(() -> new ClassBinding(clazz), clazz);
+    }
+
+    final Class<?> clazz;
+    // public fields declared by the class.
+    private final Map<String, Field> fields = new HashMap<>();
+    private final Map<String, Field> staticFields = new HashMap<>();
+    // @QuackProperty accessors.
+    private final Map<String, Method> getters = new HashMap<>();
+    private final Map<String, Method> setters = new HashMap<>();
+    // overload groups keyed by both method name and @QuackMethodName.
+    private final Map<String, Method[]> methods = new HashMap<>();
+    private final Map<String, Method[]> staticMethods = new HashMap<>();
+    // overload resolvers are created lazily, most methods are never called.
+    // only names that have methods are cached, so these are bounded by the members of the class.
+    private final ConcurrentHashMap<String, OverloadResolver> resolvers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, OverloadResolver> classResolvers = new ConcurrentHashMap<>();
+    private volatile OverloadResolver constructorResolver;
+
+    private ClassBinding(Class<?> clazz) {
+        this.clazz = clazz;
+
+        for (Field field : clazz.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isPublic(modifiers))
+                continue;
+            if (Modifier.isStatic(modifiers))
+                staticFields.putIfAbsent(field.getName(), field);
+            else
+                fields.putIfAbsent(field.getName(), field);
+        }
+
+        LinkedHashMap<String, List<Method>> groups = new LinkedHashMap<>();
+        LinkedHashMap<String, List<Method>> staticGroups = new LinkedHashMap<>();
+        for (Method method : clazz.getMethods()) {
+            QuackProperty property = method.getAnnotation(QuackProperty.class);
+            if (property != null) {
+                String propName = property.name();
+                if (isEmpty(propName))
+                    propName = method.getName();
+                boolean isVoid = method.getReturnType() == void.class || method.getReturnType() == Void.class;
+                int parameterCount = method.getParameterTypes().length;
+                if (parameterCount == 0 && !isVoid)
+                    getters.putIfAbsent(propName, method);
+                else if (parameterCount == 1 && isVoid)
+                    setters.putIfAbsent(propName, method);
+            }
+
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            addToGroup(groups, method.getName(), method);
+            if (isStatic)
+                addToGroup(staticGroups, method.getName(), method);
+            QuackMethodName annotation = method.getAnnotation(QuackMethodName.class);
+            if (annotation != null && !annotation.name().equals(method.getName())) {
+                addToGroup(groups, annotation.name(), method);
+                if (isStatic)
+                    addToGroup(staticGroups, annotation.name(), method);
+            }
+        }
+
+        for (Map.Entry<String, List<Method>> group : groups.entrySet()) {
+            methods.put(group.getKey(), group.getValue().toArray(EMPTY_METHODS));
+        }
+        for (Map.Entry<String, List<Method>> group : staticGroups.entrySet()) {
+            staticMethods.put(group.getKey(), group.getValue().toArray(EMPTY_METHODS));
+        }
+    }
+
+    private static void addToGroup(Map<String, List<Method>> groups, String name, Method method) {
+        List<Method> group = groups.get(name);
+        if (group == null) {
+            group = new ArrayList<>(1);
+            groups.put(name, group);
+        }
+        group.add(method);
+    }
+
+    Field getField(String name) {
+        return fields.get(name);
+    }
+
+    Field getStaticField(String name) {
+        return staticFields.get(name);
+    }
+
+    Method getGetter(String name) {
+        return getters.get(name);
+    }
+
+    Method getSetter(String name) {
+        return setters.get(name);
+    }
+
+    boolean hasMethod(String name) {
+        return methods.containsKey(name);
+    }
+
+    boolean hasStaticMethod(String name) {
+        return staticMethods.containsKey(name);
+    }
+
+    /**
+     * The public methods callable from JavaScript with this name or @QuackMethodName alias.
+     * The returned array must not be modified.
+     */
+    Method[] getMethods(String name) {
+        Method[] ret = methods.get(name);
+        return ret != null ? ret : EMPTY_METHODS;
+    }
+
+    /**
+     * Resolves overloads of a method called on an instance of this class.
+     */
+    OverloadResolver getResolver(String name) {
+        OverloadResolver resolver = resolvers.get(name);
+        if (resolver != null)
+            return resolver;
+        Method[] candidates = methods.get(name);
+        if (candidates == null)
+            return new OverloadResolver(EMPTY_METHODS);
+        resolver = new OverloadResolver(candidates);
+        OverloadResolver existing = resolvers.putIfAbsent(name, resolver);
+        return existing != null ? existing : resolver;
+    }
+
+    /**
+     * Resolves overloads of a method called on this class itself, which may be
+     * a method of java.lang.Class or one declared by this class.
+     */
+    OverloadResolver getClassResolver(String name) {
+        OverloadResolver resolver = classResolvers.get(name);
+        if (resolver != null)
+            return resolver;
+        ArrayList<Method> candidates = new ArrayList<>();
+        Collections.addAll(candidates, ClassBinding.of(Class.class).getMethods(name));
+        Collections.addAll(candidates, getMethods(name));
+        if (candidates.isEmpty())
+            return new OverloadResolver(EMPTY_METHODS);
+        resolver = new OverloadResolver(candidates.toArray(EMPTY_METHODS));
+        OverloadResolver existing = classResolvers.putIfAbsent(name, resolver);
+        return existing != null ? existing : resolver;
+    }
+
+    OverloadResolver getConstructorResolver() {
+        OverloadResolver resolver = constructorResolver;
+        if (resolver == null) {
+            resolver = new OverloadResolver(clazz.getConstructors());
+            constructorResolver = resolver;
+        }
+        return resolver;
+    }
+}
@@ -43,7 +43,7 @@ public class JSValue implements QuackJavaObject {
     }
 
     public <T> Iterable<T> asIterable(Class<T> clazz) {
-        JSValue iteratorSymbol = quack.evaluateForJavaScriptObject("Symbol").asJSValue().get("iterator");
+        JSValue iteratorSymbol = quack.helper("Symbol").asJSValue().get("iterator");
         JSValue iteratorFunc = get(iteratorSymbol);
         JSValue iterator = iteratorFunc.apply(this);
         JSValue iteratorNext = iterator.get("next");
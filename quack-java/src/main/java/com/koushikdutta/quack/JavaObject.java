@@ -1,7 +1,6 @@
 package com.koushikdutta.quack;
 
 import java.lang.reflect.*;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -22,79 +21,67 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
         return target;
     }
 
+    /**
+     * Find the @QuackProperty getter for {@code key} among {@code methods}. This scans the methods,
+     * property access on a JavaObject uses the per class binding instead.
+     */
     public static Method getGetterMethod(String key, Method[] methods) {
-        return QuackContext.javaObjectGetter.memoize(() -> {
-            for (Method method : methods) {
-                // name match, no args, and a return type
-                if (method.getParameterTypes().length != 0)
-                    continue;
-                if (method.getReturnType() == void.class || method.getReturnType() == Void.class)
-                    continue;
-                QuackProperty property = method.getAnnotation(QuackProperty.class);
-                if (property == null)
-                    continue;
-                String propName = property.name();
-                if (isEmpty(propName))
-                    propName = method.getName();
-                if (propName.equals(key))
-                    return method;
-            }
-            return null;
-        }, key, methods);
+        for (Method method : methods) {
+            // name match, no args, and a return type
+            if (method.getParameterTypes().length != 0)
+                continue;
+            if (method.getReturnType() == void.class || method.getReturnType() == Void.class)
+                continue;
+            QuackProperty property = method.getAnnotation(QuackProperty.class);
+            if (property == null)
+                continue;
+            String propName = property.name();
+            if (isEmpty(propName))
+                propName = method.getName();
+            if (propName.equals(key))
+                return method;
+        }
+        return null;
     }
 
+    /**
+     * Find the @QuackProperty setter for {@code key} among {@code methods}.
+     * @see #getGetterMethod(String, Method[])
+     */
     public static Method getSetterMethod(String key, Method[] methods) {
-        return QuackContext.javaObjectSetter.memoize(() -> {
-            for (Method method : methods) {
-                // name match, no args, and a return type
-                if (method.getParameterTypes().length != 1)
-                    continue;
-                if (method.getReturnType() != void.class && method.getReturnType() != Void.class)
-                    continue;
-                QuackProperty property = method.getAnnotation(QuackProperty.class);
-                if (property == null)
-                    continue;
-                String propName = property.name();
-                if (isEmpty(propName))
-                    propName = method.getName();
-                if (propName.equals(key))
-                    return method;
-            }
-            return null;
-        }, key, methods);
-    }
-
-    private static boolean hasMethod(Class clazz, String key, boolean requiresStatic) {
-        // try to get methods
-        for (Method method : clazz.getMethods()) {
-            if (requiresStatic && !Modifier.isStatic(method.getModifiers()))
+        for (Method method : methods) {
+            // name match, one arg, and no return type
+            if (method.getParameterTypes().length != 1)
                 continue;
-            if (method.getName().equals(key))
-                return true;
-            QuackMethodName annotation = method.getAnnotation(QuackMethodName.class);
-            if (annotation != null && annotation.name().equals(key))
-                return true;
+            if (method.getReturnType() != void.class && method.getReturnType() != Void.class)
+                continue;
+            QuackProperty property = method.getAnnotation(QuackProperty.class);
+            if (property == null)
+                continue;
+            String propName = property.name();
+            if (isEmpty(propName))
+                propName = method.getName();
+            if (propName.equals(key))
+                return method;
         }
-        return false;
+        return null;
     }
 
     private Field findField(String key, Class clazz) {
-        return QuackContext.javaObjectFields.memoize(() -> {
-            // try to get fields
-            for (Field field : clazz.getDeclaredFields()) {
-                if (field.getName().equals(key) && ((field.getModifiers() & Modifier.STATIC) == 0) && ((field.getModifiers() & Modifier.PUBLIC) != 0))
-                    return field;
-            }
-
-            if (target instanceof Class) {
-                for (Field field : ((Class)target).getDeclaredFields()) {
-                    if (field.getName().equals(key) && ((field.getModifiers() & Modifier.STATIC) != 0) && ((field.getModifiers() & Modifier.PUBLIC) != 0))
-                        return field;
-                }
-            }
+        Field field = ClassBinding.of(clazz).getField(key);
+        if (field != null)
+            return field;
+        if (target instanceof Class)
+            return ClassBinding.of((Class)target).getStaticField(key);
+        return null;
+    }
 
-            return null;
-        }, key, clazz.getDeclaredFields());
+    private boolean hasMethod(ClassBinding binding, String key) {
+        if (binding.hasMethod(key))
+            return true;
+        if (target instanceof Class)
+            return ClassBinding.of((Class)target).hasStaticMethod(key);
+        return false;
     }
 
     public Object get(String key) {
@@ -103,6 +90,7 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             return ret;
 
         Class clazz = target.getClass();
+        ClassBinding binding = ClassBinding.of(clazz);
         if (!Proxy.isProxyClass(clazz)) {
             // length is not a field of the array class. it's a language property.
             // Nor can arrays be cast to Array.
@@ -120,7 +108,7 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             }
         }
 
-        Method g = getGetterMethod(key, clazz.getMethods());
+        Method g = binding.getGetter(key);
         if (g != null) {
             try {
                 return quackContext.coerceJavaToJavaScript(g.invoke(target));
@@ -130,15 +118,7 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             }
         }
 
-        Boolean m = QuackContext.javaObjectMethods.memoize(() -> {
-            if (hasMethod(clazz, key, false))
-                return true;
-            if (target instanceof Class)
-                return hasMethod((Class)target, key, true);
-            return false;
-        }, key, clazz.getMethods());
-
-        if (m)
+        if (hasMethod(binding, key))
             return new JavaMethodObject(quackContext, target, key);
 
         return null;
@@ -212,7 +192,7 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             }
         }
 
-        Method s = getSetterMethod(key, clazz.getMethods());
+        Method s = ClassBinding.of(clazz).getSetter(key);
         if (s != null) {
             try {
                 quackContext.coerceJavaToJavaScript(s.invoke(target, quackContext.coerceJavaScriptToJava(s.getParameterTypes()[0], value)));
@@ -262,8 +242,8 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             return QuackObject.super.construct(args);
 
         Class clazz = (Class)target;
-        Constructor[] constructors = clazz.getConstructors();
-        if (constructors.length == 0) {
+        OverloadResolver constructors = ClassBinding.of(clazz).getConstructorResolver();
+        if (constructors.isEmpty()) {
             try {
                 return clazz.newInstance();
             }
@@ -272,83 +252,23 @@ public final class JavaObject implements QuackObject, QuackJavaObject {
             }
         }
 
-        ArrayList<Class> argTypes = new ArrayList<>();
-        for (Object arg: args) {
-            if (arg == null)
-                argTypes.add(null);
-            else
-                argTypes.add(arg.getClass());
-        }
-        Constructor best = QuackContext.javaObjectConstructorCandidates.memoize(() -> {
-            Constructor ret = null;
-            int bestScore = Integer.MAX_VALUE;
-            for (Constructor constructor: constructors) {
-                // parameter count is most important
-                int score = Math.abs(argTypes.size() - constructor.getParameterTypes().length) * 1000;
-                // tiebreak by checking parameter types
-                for (int i = 0; i < Math.min(constructor.getParameterTypes().length, argTypes.size()); i++) {
-                    // check if the class is assignable or both parameters are numbers
-                    Class<?> argType = argTypes.get(i);
-                    Class<?> paramType = constructor.getParameterTypes()[i];
-                    if (paramType == argType) {
-                        score -= 4;
-                    }
-                    if (QuackContext.isNumberClass(paramType) && QuackContext.isNumberClass(argType)) {
-                        score -= 3;
-                    }
-                    else if ((paramType == Long.class || paramType == long.class) && argType == String.class) {
-                        score -= 2;
-                    }
-                    else if (argType == null || paramType.isAssignableFrom(argType)) {
-                        score -= 1;
-                    }
-                }
-                if (score < bestScore) {
-                    bestScore = score;
-                    ret = constructor;
-                }
-            }
-            return ret;
-        }, target, constructors, argTypes.toArray());
-
+        MethodInvoker invoker = constructors.resolve(args);
         try {
-            int numParameters = best.getParameterTypes().length;
-            if (best.isVarArgs())
-                numParameters--;
-            ArrayList<Object> coerced = new ArrayList<>();
-            int i = 0;
-            for (; i < numParameters; i++) {
-                if (i < args.length)
-                    coerced.add(quackContext.coerceJavaScriptToJava(best.getParameterTypes()[i], args[i]));
-                else
-                    coerced.add(null);
-            }
-            if (best.isVarArgs()) {
-                Class varargType = best.getParameterTypes()[numParameters].getComponentType();
-                ArrayList<Object> varargs = new ArrayList<>();
-                for (; i < args.length; i++) {
-                    varargs.add(quackContext.coerceJavaScriptToJava(varargType, args[i]));
-                }
-                coerced.add(JavaMethodObject.toArray(varargType, varargs));
-            }
-            else if (i < args.length) {
-                System.err.println("dropping javascript to java arguments on the floor: " + (args.length - i) + " " + best.toString());
-            }
-            return quackContext.coerceJavaToJavaScript(best.newInstance(coerced.toArray()));
+            return quackContext.coerceJavaToJavaScript(invoker.invoke(null, invoker.coerceArgs(quackContext, args)));
         }
         catch (IllegalAccessException e) {
-            throw new IllegalArgumentException(best.toString(), e);
+            throw new IllegalArgumentException(invoker.toString(), e);
         }
         catch (InvocationTargetException e) {
             if (e.getTargetException() instanceof RuntimeException)
                 throw (RuntimeException)e.getTargetException();
-            throw new IllegalArgumentException(best.toString(), e);
+            throw new IllegalArgumentException(invoker.toString(), e);
         }
         catch (InstantiationException e) {
-            throw new IllegalArgumentException(best.toString(), e);
+            throw new IllegalArgumentException(invoker.toString(), e);
         }
         catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException(best.toString(), e);
+            throw new IllegalArgumentException(invoker.toString(), e);
         }
     }
 }
@@ -24,7 +24,7 @@ public class JavaScriptMap extends AbstractMap<String, Object> {
 
         set = new HashSet<>();
 
-        JavaScriptObject fn = jo.quackContext.evaluateForJavaScriptObject("Object.entries");
+        JavaScriptObject fn = jo.quackContext.helper("Object.entries");
         JavaScriptObject entries = (JavaScriptObject) fn.call(jo);
         for (long i = 0; ; ++i) {
             JavaScriptObject entry = (JavaScriptObject) entries.get(i);
@@ -4,23 +4,37 @@ import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
-public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
+public class JavaScriptObject implements QuackObject, QuackJavaScriptObject, AutoCloseable {
     final public QuackContext quackContext;
     public final long context;
-    final public long pointer;
+    private final long pointer;
+    private final QuackContext.JavaScriptObjectReference reference;
+    // claimed once, by either close() or a scope, so the handle is only released once.
+    private static final AtomicIntegerFieldUpdater<JavaScriptObject> CLOSED = AtomicIntegerFieldUpdater.newUpdater(JavaScriptObject.class, "closed");
+    private volatile int closed;
     public JavaScriptObject(QuackContext quackContext, long context, long pointer) {
         this.quackContext = quackContext;
         this.context = context;
         this.pointer = pointer;
+        reference = quackContext != null ? quackContext.track(this, pointer) : null;
     }
 
     @Override
     public long getNativePointer() {
+        return getPointer();
+    }
+
+    private long getPointer() {
+        if (closed != 0)
+            throw new IllegalStateException("JavaScriptObject is closed");
         return pointer;
     }
 
@@ -41,44 +55,152 @@ public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
 
     public <T> T constructCoerced(Class<T> clazz, Object... args) {
         quackContext.coerceJavaArgsToJavaScript(args);
-        return (T)quackContext.coerceJavaScriptToJava(clazz, quackContext.callConstructor(pointer, args));
+        return (T)quackContext.coerceJavaScriptToJava(clazz, quackContext.callConstructor(getPointer(), args));
     }
 
     public String typeof() {
-        return (String)quackContext.evaluateForJavaScriptObject("(function(f) { return typeof f; })").call(this);
+        return quackContext.typeOf(getPointer());
     }
 
+    /**
+     * Check whether this is an instance of {@code type}, an expression such as "Promise"
+     * that is evaluated once by the context.
+     */
     public boolean isInstanceof(String type) {
         String script = "(function(f){return f instanceof " + type + "})";
-        return (Boolean) quackContext.evaluateForJavaScriptObject(script).call(this);
+        return (Boolean) quackContext.helper(script).call(this);
+    }
+
+    public boolean isInstanceof(JavaScriptObject constructor) {
+        if (constructor.quackContext != quackContext)
+            throw new IllegalArgumentException("constructor belongs to another QuackContext");
+        return quackContext.isInstanceOf(getPointer(), constructor.getPointer());
     }
 
     public String stringify() {
-        return quackContext.stringify(pointer);
+        return quackContext.stringify(getPointer());
+    }
+
+    /**
+     * Encode this object into a QuackBinaryObject, the binary counterpart of {@link #stringify()}.
+     * Functions, symbols and undefined values are encoded as undefined.
+     */
+    public QuackBinaryObject toBinary() {
+        ByteBuffer buffer = quackContext.encodeBinary(getPointer());
+        if (buffer == null)
+            return null;
+        return new QuackBinaryObject(buffer);
     }
 
     public Object get(String key) {
-        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyString(pointer, key));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyString(getPointer(), key));
+    }
+
+    /**
+     * Get a property with a key interned by {@link QuackContext#atom(String)}.
+     */
+    public Object get(QuackAtom key) {
+        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyAtom(getPointer(), key));
+    }
+
+    /**
+     * Get a property as an int, converted like the JavaScript ToInt32 operation, without boxing it.
+     */
+    public int getInt(String key) {
+        if (key == null)
+            throw new NullPointerException();
+        return quackContext.getKeyInt(getPointer(), key);
+    }
+
+    public int getInt(QuackAtom key) {
+        return quackContext.getKeyInt(getPointer(), key);
+    }
+
+    /**
+     * Get a property as a double, converted like the JavaScript ToNumber operation, without boxing it.
+     */
+    public double getDouble(String key) {
+        if (key == null)
+            throw new NullPointerException();
+        return quackContext.getKeyDouble(getPointer(), key);
+    }
+
+    public double getDouble(QuackAtom key) {
+        return quackContext.getKeyDouble(getPointer(), key);
     }
 
     public Object get(int index) {
-        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyInteger(pointer, index));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyInteger(getPointer(), index));
+    }
+
+    /**
+     * Get the values of several properties with a single call into JavaScript.
+     */
+    public Object[] getAll(String... keys) {
+        for (String key: keys) {
+            if (key == null)
+                throw new NullPointerException();
+        }
+        return coerceAll(quackContext.getKeys(getPointer(), keys));
+    }
+
+    /**
+     * Get count elements starting at index start with a single call into JavaScript.
+     */
+    public Object[] getAll(int start, int count) {
+        if (start < 0 || count < 0)
+            throw new IndexOutOfBoundsException();
+        return coerceAll(quackContext.getRange(getPointer(), start, count));
+    }
+
+    private Object[] coerceAll(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = quackContext.coerceJavaScriptToJava(null, values[i]);
+        }
+        return values;
     }
 
     public Object call(Object... args) {
         quackContext.coerceJavaArgsToJavaScript(args);
-        return quackContext.coerceJavaScriptToJava(null, quackContext.call(pointer, args));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.call(getPointer(), args));
+    }
+
+    /**
+     * Call this function with number arguments, and convert the result like the JavaScript
+     * ToNumber operation, without boxing either.
+     */
+    public double callDouble(double... args) {
+        return quackContext.callDouble(getPointer(), args.length, 0, 0, args);
+    }
+
+    public double callDouble(double arg) {
+        return quackContext.callDouble(getPointer(), 1, arg, 0, null);
+    }
+
+    public double callDouble(double arg0, double arg1) {
+        return quackContext.callDouble(getPointer(), 2, arg0, arg1, null);
+    }
+
+    /**
+     * Bind this function to fixed argument and return types, resolving their conversions once
+     * for functions that are called many times.
+     */
+    public <R> ScriptFunction<R> bind(Class<R> returnType, Class<?>... argTypes) {
+        return new ScriptFunction<>(this, returnType, argTypes);
     }
 
     @Override
     public Object callMethod(Object thiz, Object... args) {
         quackContext.coerceJavaArgsToJavaScript(args);
-        return quackContext.coerceJavaScriptToJava(null, quackContext.callMethod(pointer, quackContext.coerceJavaToJavaScript(thiz), args));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.callMethod(getPointer(), quackContext.coerceJavaToJavaScript(thiz), args));
     }
 
+    /**
+     * Call the method {@code property}, which may be a {@link QuackAtom}.
+     */
     public Object callProperty(Object property, Object... args) {
         quackContext.coerceJavaArgsToJavaScript(args);
-        return quackContext.coerceJavaScriptToJava(null, quackContext.callProperty(pointer, property, args));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.callProperty(getPointer(), property, args));
     }
 
     @Override
@@ -86,21 +208,57 @@ public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
         if (key instanceof String)
             return get((String)key);
 
+        if (key instanceof QuackAtom)
+            return get((QuackAtom)key);
+
         if (key instanceof Number) {
             Number number = (Number)key;
             if (((Integer)number.intValue()).equals(number))
                 return get(number.intValue());
         }
 
-        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyObject(pointer, quackContext.coerceJavaToJavaScript(key)));
+        return quackContext.coerceJavaScriptToJava(null, quackContext.getKeyObject(getPointer(), quackContext.coerceJavaToJavaScript(key)));
     }
 
     public boolean set(String key, Object value) {
-        return quackContext.setKeyString(pointer, key, value);
+        return quackContext.setKeyString(getPointer(), key, value);
+    }
+
+    /**
+     * Set a property with a key interned by {@link QuackContext#atom(String)}.
+     */
+    public boolean set(QuackAtom key, Object value) {
+        return quackContext.setKeyAtom(getPointer(), key, value);
     }
 
     public boolean set(int index, Object value) {
-        return quackContext.setKeyInteger(pointer, index, value);
+        return quackContext.setKeyInteger(getPointer(), index, value);
+    }
+
+    /**
+     * Set several properties with a single call into JavaScript.
+     */
+    public boolean setAll(Map<String, ?> values) {
+        String[] keys = new String[values.size()];
+        Object[] setValues = new Object[keys.length];
+        int i = 0;
+        for (Map.Entry<String, ?> entry: values.entrySet()) {
+            if (entry.getKey() == null)
+                throw new NullPointerException();
+            keys[i] = entry.getKey();
+            setValues[i] = entry.getValue();
+            i++;
+        }
+        return quackContext.setKeys(getPointer(), keys, setValues);
+    }
+
+    /**
+     * Set consecutive elements starting at index start with a single call into JavaScript.
+     */
+    public boolean setAll(int start, Object... values) {
+        if (start < 0)
+            throw new IndexOutOfBoundsException();
+        return quackContext.setRange(getPointer(), start, values);
     }
 
     @Override
@@ -109,6 +267,10 @@ public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
             return set((String)key, value);
         }
 
+        if (key instanceof QuackAtom) {
+            return set((QuackAtom)key, value);
+        }
+
         if (key instanceof Number) {
             Number number = (Number)key;
             if (number.doubleValue() == number.intValue()) {
@@ -116,7 +278,7 @@ public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
             }
         }
 
-        return quackContext.setKeyObject(pointer, key, value);
+        return quackContext.setKeyObject(getPointer(), key, value);
     }
 
     @Override
@@ -202,11 +364,24 @@ public class JavaScriptObject implements QuackObject, QuackJavaScriptObject {
         return (T)Proxy.newProxyInstance(clazz.getClassLoader(), classes.toArray(new Class[0]), createInvocationHandler());
     }
 
+    /**
+     * Release the reference to the JavaScript object now, rather than when this object is collected.
+     * The JavaScript object itself lives on if it is still referenced from JavaScript.
+     * This object, and proxies created from it, can not be used afterwards.
+     */
     @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        if (quackContext != null)
-            quackContext.finalizeJavaScriptObject(pointer);
+    public void close() {
+        if (!CLOSED.compareAndSet(this, 0, 1))
+            return;
+        if (reference != null)
+            quackContext.release(reference);
+    }
+
+    // mark this closed for a scope, which releases it. returns null if it was already closed.
+    QuackContext.JavaScriptObjectReference detach() {
+        if (!CLOSED.compareAndSet(this, 0, 1))
+            return null;
+        return reference;
     }
 
     public JSValue asJSValue() {
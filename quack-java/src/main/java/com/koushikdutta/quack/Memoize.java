@@ -1,68 +1,172 @@
 package com.koushikdutta.quack;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Thread safe cache of reflection lookups.
+ * Entries are keyed structurally on the arguments (arrays are compared element by element),
+ * so hash collisions can not return a value computed for different arguments.
+ * Optionally bounded, in which case the least recently used entries are evicted.
+ */
 public class Memoize<T> {
-  public interface MemoizeMap<V> {
-    boolean containsKey(Object key);
-    V get(Object key);
-    V put(Integer key, V value);
-    void clear();
+  // ConcurrentHashMap does not permit null values.
+  private static final Object NULL = new Object();
+
+  static final class Key {
+    private final Object[] parts;
+    private final int hash;
+
+    Key(Object[] parts) {
+      this.parts = parts;
+      this.hash = Arrays.deepHashCode(parts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key)obj;
+      return hash == other.hash && Arrays.deepEquals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
-  private static class MemoizeMapImpl<V> extends HashMap<Integer, V> implements MemoizeMap<V> {
-    /**
-     *
-     */
-    private static final long serialVersionUID = -4020434697394716201L;
+  private static final class Entry {
+    final Object value;
+    volatile long lastAccess;
+
+    Entry(Object value, long lastAccess) {
+      this.value = value;
+      this.lastAccess = lastAccess;
+    }
   }
 
-  public Memoize(MemoizeMap<T> map) {
-    store = map;
+  private static final class Candidate {
+    final Key key;
+    final Entry entry;
+    final long lastAccess;
+
+    Candidate(Key key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+      this.lastAccess = entry.lastAccess;
+    }
   }
+
+  private final ConcurrentHashMap<Key, Entry> store = new ConcurrentHashMap<>();
+  private final int maximumSize;
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  /**
+   * Create an unbounded cache.
+   */
   public Memoize() {
-    this(new MemoizeMapImpl<>());
+    this(0);
   }
 
-  public static int hashCode(Object... objects) {
-    int ret = 0;
-    for (int i = 0; i < objects.length; i++) {
-      Object o = objects[i];
-      ret ^= Integer.rotateLeft(o == null ? 0 : o.hashCode(), i);
-    }
-    ret ^= objects.length;
-    return ret;
+  /**
+   * Create a cache that holds at most {@code maximumSize} entries. 0 is unbounded.
+   */
+  public Memoize(int maximumSize) {
+    if (maximumSize < 0)
+      throw new IllegalArgumentException("maximumSize must not be negative");
+    this.maximumSize = maximumSize;
   }
 
-  MemoizeMap<T> store;
   public T memoize(MemoizeFunc<T> func, Object... args) {
-    int hash = hashCode(args);
-    return memoize(func, hash);
-  }
-
-  void clear() {
-    store.clear();
+    return memoize(func, new Key(args));
   }
 
   public T memoize(MemoizeFunc<T> func, Object arg0, Object[] args) {
-    int hash = hashCode(args);
-    hash ^= arg0 == null ? 0 : arg0.hashCode();
-    return memoize(func, hash);
+    return memoize(func, new Key(new Object[] { arg0, args }));
   }
 
   public T memoize(MemoizeFunc<T> func, Object arg0, Object[] args0, Object[] args1) {
-    int hash = hashCode(args0);
-    hash ^= hashCode(args1);
-    hash ^= arg0 == null ? 0 : arg0.hashCode();
-    return memoize(func, hash);
+    return memoize(func, new Key(new Object[] { arg0, args0, args1 }));
   }
 
-  private T memoize(MemoizeFunc<T> func, int hash) {
-    if (store.containsKey(hash)) {
-      return store.get(hash);
+  @SuppressWarnings("unchecked")
+  private T memoize(MemoizeFunc<T> func, Key key) {
+    Entry entry = store.get(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      if (maximumSize != 0)
+        entry.lastAccess = clock.incrementAndGet();
+      return entry.value == NULL ? null : (T)entry.value;
     }
+
+    misses.incrementAndGet();
+    // computed outside of the map: func may recursively memoize, and the lookups are idempotent,
+    // so a concurrent duplicate computation is harmless.
     T ret = func.process();
-    store.put(hash, ret);
+    store.put(key, new Entry(ret == null ? NULL : ret, clock.incrementAndGet()));
+    if (maximumSize != 0 && store.size() > maximumSize)
+      evict();
     return ret;
   }
+
+  private void evict() {
+    if (!evicting.compareAndSet(false, true))
+      return;
+    try {
+      // evict down to 3/4 capacity so eviction is amortized over many insertions.
+      // access times are snapshotted, as they may change while sorting.
+      int target = maximumSize - maximumSize / 4;
+      ArrayList<Candidate> candidates = new ArrayList<>(store.size());
+      for (Map.Entry<Key, Entry> entry: store.entrySet()) {
+        candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+      }
+      int remove = candidates.size() - target;
+      if (remove <= 0)
+        return;
+      candidates.sort((a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+      for (int i = 0; i < remove; i++) {
+        Candidate candidate = candidates.get(i);
+        if (store.remove(candidate.key, candidate.entry))
+          evictions.incrementAndGet();
+      }
+    }
+    finally {
+      evicting.set(false);
+    }
+  }
+
+  public void clear() {
+    store.clear();
+  }
+
+  public int size() {
+    return store.size();
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
 }
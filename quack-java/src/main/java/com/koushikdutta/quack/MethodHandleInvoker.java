@@ -0,0 +1,53 @@
+package com.koushikdutta.quack;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * A member bound to a MethodHandle with the signature (Object thiz, Object[] args).
+ * java.lang.invoke is only available from Android API 26, so this class must only be loaded
+ * when {@link MethodInvoker} has method handles enabled.
+ */
+final class MethodHandleInvoker {
+    private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final MethodHandle handle;
+
+    private MethodHandleInvoker(MethodHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns null if the member is not accessible from this package.
+     */
+    static MethodHandleInvoker create(Member member, int parameterCount) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle;
+            if (member instanceof Method) {
+                handle = lookup.unreflect((Method)member).asFixedArity();
+                // static methods ignore the this argument.
+                if (Modifier.isStatic(member.getModifiers()))
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            else {
+                handle = lookup.unreflectConstructor((Constructor<?>)member).asFixedArity();
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return new MethodHandleInvoker(handle.asSpreader(Object[].class, parameterCount).asType(GENERIC));
+        }
+        catch (IllegalAccessException e) {
+            // reflection will report the failure.
+            return null;
+        }
+    }
+
+    Object invoke(Object thiz, Object[] args) throws Throwable {
+        return (Object)handle.invokeExact(thiz, args);
+    }
+}
@@ -0,0 +1,111 @@
+package com.koushikdutta.quack;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes a resolved method or constructor with JavaScript arguments.
+ * The parameter layout is resolved once per member, and when enabled, the member is bound to a
+ * {@link MethodHandleInvoker} so calls skip reflective dispatch.
+ * Invokers are shared by all contexts, while coercions are registered per context, so the
+ * arguments are coerced by the calling context on each call.
+ */
+final class MethodInvoker {
+    // MethodHandles require Android API 26. MethodHandleInvoker is not loaded unless enabled.
+    private static volatile boolean useMethodHandles = !"Dalvik".equals(System.getProperty("java.vm.name"));
+    private static final Memoize<MethodInvoker> invokers = new Memoize<>(QuackContext.REFLECTION_CACHE_SIZE);
+
+    static MethodInvoker of(Method method) {
+        return invokers.memoize(() -> new MethodInvoker(method, method.getParameterTypes(), method.isVarArgs()), method);
+    }
+
+    static MethodInvoker of(Constructor<?> constructor) {
+        return invokers.memoize(() -> new MethodInvoker(constructor, constructor.getParameterTypes(), constructor.isVarArgs()), constructor);
+    }
+
+    static void setUseMethodHandles(boolean enabled) {
+        useMethodHandles = enabled;
+        invokers.clear();
+    }
+
+    static boolean getUseMethodHandles() {
+        return useMethodHandles;
+    }
+
+    private final Member member;
+    private final Class<?>[] parameterTypes;
+    private final int numParameters;
+    private final Class<?> varargType;
+    private final MethodHandleInvoker handle;
+
+    private MethodInvoker(Member member, Class<?>[] parameterTypes, boolean isVarArgs) {
+        this.member = member;
+        this.parameterTypes = parameterTypes;
+        if (isVarArgs) {
+            numParameters = parameterTypes.length - 1;
+            varargType = parameterTypes[numParameters].getComponentType();
+        }
+        else {
+            numParameters = parameterTypes.length;
+            varargType = null;
+        }
+        handle = useMethodHandles ? MethodHandleInvoker.create(member, parameterTypes.length) : null;
+    }
+
+    Member getMember() {
+        return member;
+    }
+
+    Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * Coerce JavaScript arguments into the parameter layout of the member, collecting var args.
+     */
+    Object[] coerceArgs(QuackContext quackContext, Object[] args) {
+        Object[] coerced = new Object[parameterTypes.length];
+        int i = 0;
+        for (; i < numParameters; i++) {
+            if (i < args.length)
+                coerced[i] = quackContext.coerceJavaScriptToJava(parameterTypes[i], args[i]);
+        }
+        if (varargType != null) {
+            Object varargs = Array.newInstance(varargType, Math.max(0, args.length - i));
+            for (int j = 0; i < args.length; i++, j++) {
+                Array.set(varargs, j, quackContext.coerceJavaScriptToJava(varargType, args[i]));
+            }
+            coerced[numParameters] = varargs;
+        }
+        else if (i < args.length) {
+            System.err.println("dropping javascript to java arguments on the floor: " + (args.length - i) + " " + member.toString());
+        }
+        return coerced;
+    }
+
+    /**
+     * Invoke the member with arguments already coerced by {@link #coerceArgs(QuackContext, Object[])}.
+     * Exceptions thrown by the member are wrapped in an InvocationTargetException, as with reflection.
+     */
+    Object invoke(Object thiz, Object[] coerced) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+        if (handle != null) {
+            try {
+                return handle.invoke(thiz, coerced);
+            }
+            catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+        if (member instanceof Method)
+            return ((Method)member).invoke(thiz, coerced);
+        return ((Constructor<?>)member).newInstance(coerced);
+    }
+
+    @Override
+    public String toString() {
+        return member.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.koushikdutta.quack;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+/**
+ * Chooses the overload of a method (or constructor) to invoke for a set of JavaScript arguments.
+ * Keeps a small inline cache of argument class signatures to the chosen invoker, so repeated calls
+ * with the same argument types skip scoring the candidates.
+ */
+final class OverloadResolver {
+    private static final int MAX_ENTRIES = 8;
+    private static final Entry[] EMPTY_ENTRIES = new Entry[0];
+
+    private static final class Entry {
+        final Class<?>[] argTypes;
+        final MethodInvoker invoker;
+
+        Entry(Class<?>[] argTypes, MethodInvoker invoker) {
+            this.argTypes = argTypes;
+            this.invoker = invoker;
+        }
+
+        boolean matches(Object[] args) {
+            if (argTypes.length != args.length)
+                return false;
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg == null ? argTypes[i] != null : argTypes[i] != arg.getClass())
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final Member[] candidates;
+    // copy on write, racing updates may drop an entry, which is harmless.
+    private volatile Entry[] entries = EMPTY_ENTRIES;
+    private int nextEntry;
+
+    OverloadResolver(Member[] candidates) {
+        this.candidates = candidates;
+    }
+
+    boolean isEmpty() {
+        return candidates.length == 0;
+    }
+
+    /**
+     * The invoker of the best overload for the arguments, or null if there are no candidates.
+     */
+    MethodInvoker resolve(Object[] args) {
+        Entry[] current = entries;
+        for (Entry entry: current) {
+            if (entry.matches(args))
+                return entry.invoker;
+        }
+
+        Class<?>[] argTypes = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            argTypes[i] = args[i] == null ? null : args[i].getClass();
+        }
+        Member best = score(argTypes);
+        if (best == null)
+            return null;
+        MethodInvoker invoker = best instanceof Method ? MethodInvoker.of((Method)best) : MethodInvoker.of((Constructor)best);
+
+        Entry entry = new Entry(argTypes, invoker);
+        synchronized (this) {
+            Entry[] updated;
+            if (entries.length < MAX_ENTRIES) {
+                updated = new Entry[entries.length + 1];
+                System.arraycopy(entries, 0, updated, 0, entries.length);
+                updated[entries.length] = entry;
+            }
+            else {
+                // megamorphic call site, replace entries round robin.
+                updated = entries.clone();
+                updated[nextEntry] = entry;
+                nextEntry = (nextEntry + 1) % MAX_ENTRIES;
+            }
+            entries = updated;
+        }
+        return invoker;
+    }
+
+    private Member score(Class<?>[] argTypes) {
+        Member ret = null;
+        int bestScore = Integer.MAX_VALUE;
+        for (Member member: candidates) {
+            Class<?>[] parameterTypes = member instanceof Method ? ((Method)member).getParameterTypes() : ((Constructor)member).getParameterTypes();
+            // parameter count is most important
+            int score = Math.abs(argTypes.length - parameterTypes.length) * 1000;
+            // tiebreak by checking parameter types
+            for (int i = 0; i < Math.min(parameterTypes.length, argTypes.length); i++) {
+                // check if the class is assignable or both parameters are numbers
+                Class<?> argType = argTypes[i];
+                Class<?> paramType = parameterTypes[i];
+                if (paramType == argType) {
+                    score -= 4;
+                }
+                if (QuackContext.isNumberClass(paramType) && QuackContext.isNumberClass(argType)) {
+                    score -= 3;
+                }
+                else if ((paramType == Long.class || paramType == long.class) && argType == String.class) {
+                    score -= 2;
+                }
+                else if (argType == null || paramType.isAssignableFrom(argType)) {
+                    score -= 1;
+                }
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                ret = member;
+            }
+        }
+        return ret;
+    }
+}
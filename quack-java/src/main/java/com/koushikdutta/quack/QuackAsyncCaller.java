@@ -1,21 +1,32 @@
 package com.koushikdutta.quack;
 
+import java.util.concurrent.Executor;
+
 public class QuackAsyncCaller<T> {
     private final Class<T> clazz;
     private final JavaScriptObject jso;
+    private final Executor executor;
 
-    private QuackAsyncCaller(Class<T> clazz, JavaScriptObject jso)
+    private QuackAsyncCaller(Class<T> clazz, JavaScriptObject jso, Executor executor)
     {
         this.clazz = clazz;
         this.jso = jso;
+        this.executor = executor;
     }
 
     public static <T> QuackAsyncCaller<T> create(Class<T> clazz, JavaScriptObject jso) {
-        return new QuackAsyncCaller<>(clazz, jso);
+        return new QuackAsyncCaller<>(clazz, jso, null);
+    }
+
+    /**
+     * Create a caller whose futures run their async callbacks on {@code executor}.
+     */
+    public static <T> QuackAsyncCaller<T> create(Class<T> clazz, JavaScriptObject jso, Executor executor) {
+        return new QuackAsyncCaller<>(clazz, jso, executor);
     }
 
     private QuackFuture<T> toFuture(Object o) {
-        return ((QuackFuture<T>) QuackFuture.create(clazz, jso.quackContext, o));
+        return ((QuackFuture<T>) QuackFuture.create(clazz, jso.quackContext, o)).setDefaultExecutor(executor);
     }
 
     public QuackFuture<T> call(Object... args) {
@@ -0,0 +1,28 @@
+package com.koushikdutta.quack;
+
+/**
+ * A property key interned by a QuackContext, created with {@link QuackContext#atom(String)}.
+ * Accessing properties with an atom skips converting and hashing the key string on every access.
+ * Atoms can only be used with objects of the context that created them, and are valid until
+ * it is closed.
+ */
+public final class QuackAtom {
+    final QuackContext quackContext;
+    final int atom;
+    private final String name;
+
+    QuackAtom(QuackContext quackContext, int atom, String name) {
+        this.quackContext = quackContext;
+        this.atom = atom;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,214 @@
+package com.koushikdutta.quack;
+
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the QuackBinaryObject format, which is shared with the native decoder and
+ * encoder. Each value is a tag byte followed by its little endian payload.
+ */
+final class QuackBinaryCodec {
+    static final byte NULL = 0;
+    static final byte UNDEFINED = 1;
+    static final byte FALSE = 2;
+    static final byte TRUE = 3;
+    static final byte INT32 = 4;
+    static final byte DOUBLE = 5;
+    static final byte STRING = 6;
+    static final byte ARRAY = 7;
+    static final byte OBJECT = 8;
+
+    // matches the native nesting limit.
+    private static final int MAX_DEPTH = 512;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private QuackBinaryCodec() {
+    }
+
+    private static final class Writer {
+        byte[] bytes = new byte[64];
+        int length;
+
+        void ensure(int count) {
+            if (length + count > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, length + count)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[length++] = (byte)value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[length++] = (byte)value;
+            bytes[length++] = (byte)(value >> 8);
+            bytes[length++] = (byte)(value >> 16);
+            bytes[length++] = (byte)(value >> 24);
+        }
+
+        void writeLong(long value) {
+            writeInt((int)value);
+            writeInt((int)(value >> 32));
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(UTF8);
+            writeInt(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+    }
+
+    static ByteBuffer encode(Object value) {
+        Writer writer = new Writer();
+        write(writer, value, 0);
+        ByteBuffer ret = ByteBuffer.allocateDirect(writer.length);
+        ret.put(writer.bytes, 0, writer.length);
+        ret.flip();
+        return ret;
+    }
+
+    private static void write(Writer writer, Object value, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("value is too deeply nested, or is cyclic");
+
+        if (value == null) {
+            writer.writeByte(NULL);
+        }
+        else if (value instanceof Boolean) {
+            writer.writeByte((Boolean)value ? TRUE : FALSE);
+        }
+        else if (value instanceof Number) {
+            Number number = (Number)value;
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte
+                    || (value instanceof Long && number.longValue() == number.intValue())) {
+                writer.writeByte(INT32);
+                writer.writeInt(number.intValue());
+            }
+            else {
+                writer.writeByte(DOUBLE);
+                writer.writeLong(Double.doubleToRawLongBits(number.doubleValue()));
+            }
+        }
+        else if (value instanceof CharSequence || value instanceof Character) {
+            writer.writeByte(STRING);
+            writer.writeString(value.toString());
+        }
+        else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            writer.writeByte(OBJECT);
+            writer.writeInt(map.size());
+            for (Map.Entry<?, ?> entry: map.entrySet()) {
+                writer.writeString(String.valueOf(entry.getKey()));
+                write(writer, entry.getValue(), depth + 1);
+            }
+        }
+        else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>)value;
+            writer.writeByte(ARRAY);
+            writer.writeInt(collection.size());
+            for (Object element: collection) {
+                write(writer, element, depth + 1);
+            }
+        }
+        else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            writer.writeByte(ARRAY);
+            writer.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                write(writer, Array.get(value, i), depth + 1);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("can not encode " + value.getClass() + " into a QuackBinaryObject");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer is truncated or corrupt.
+     */
+    static Object decode(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Object ret;
+        try {
+            ret = read(buffer, 0);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("QuackBinaryObject is truncated", e);
+        }
+        if (buffer.hasRemaining())
+            throw new IllegalArgumentException("QuackBinaryObject has trailing data");
+        return ret;
+    }
+
+    // validates a length prefix against the bytes left, given the smallest encoding of each item.
+    private static int readCount(ByteBuffer buffer, int minimumItemSize) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minimumItemSize)
+            throw new IllegalArgumentException("QuackBinaryObject is truncated");
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readCount(buffer, 1);
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, UTF8);
+    }
+
+    private static Object read(ByteBuffer buffer, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("QuackBinaryObject nesting is too deep");
+
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+            case UNDEFINED:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INT32:
+                return buffer.getInt();
+            case DOUBLE:
+                return buffer.getDouble();
+            case STRING:
+                return readString(buffer);
+            case ARRAY: {
+                // each element is at least a tag.
+                int count = readCount(buffer, 1);
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(read(buffer, depth + 1));
+                }
+                return list;
+            }
+            case OBJECT: {
+                // each entry is at least a key length and a tag.
+                int count = readCount(buffer, 5);
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    String key = readString(buffer);
+                    map.put(key, read(buffer, depth + 1));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("QuackBinaryObject has an unknown tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.koushikdutta.quack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Will be decoded into a JavaScript value when received by the JavaScript runtime, without
+ * the string formatting and parsing of a {@link QuackJsonObject}. The buffer must be a direct
+ * ByteBuffer, and its contents between position and limit must be in the format written by
+ * {@link #encode(Object)} or {@link JavaScriptObject#toBinary()}.
+ */
+public final class QuackBinaryObject {
+    final public ByteBuffer buffer;
+    public QuackBinaryObject(ByteBuffer buffer) {
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException("QuackBinaryObject requires a direct ByteBuffer");
+        this.buffer = buffer;
+    }
+
+    /**
+     * Encode null, Boolean, Number, CharSequence, Map, Collection and array values,
+     * nested in any combination.
+     */
+    public static QuackBinaryObject encode(Object value) {
+        return new QuackBinaryObject(QuackBinaryCodec.encode(value));
+    }
+
+    /**
+     * Decode the buffer into Java values. Arrays become a List, objects become a Map,
+     * and numbers become an Integer or Double.
+     * @throws IllegalArgumentException if the buffer is truncated or corrupt.
+     */
+    public Object decode() {
+        return QuackBinaryCodec.decode(buffer.duplicate());
+    }
+}
@@ -0,0 +1,177 @@
+package com.koushikdutta.quack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An on disk cache of compiled QuickJS bytecode, keyed by a hash of the script source and file name.
+ * Scripts are compiled on the first use, and later uses, including from other contexts and
+ * processes, evaluate the memory mapped bytecode without parsing the source.
+ * Entries are keyed by the build of the native library that wrote them, so bytecode written by
+ * other builds is never read. Their files are not removed, use {@link #clear()} after an upgrade
+ * to reclaim the space.
+ * QuickJS does not validate bytecode as it reads it, so each file starts with the length and
+ * digest of its bytecode. Files that are truncated or damaged are deleted and compiled again.
+ */
+public final class QuackBytecodeCache {
+    // bump if the cache file layout changes.
+    private static final String CACHE_VERSION = "2";
+    // the bytecode length and its SHA-256 digest.
+    private static final int DIGEST_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + DIGEST_LENGTH;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static volatile String bytecodeVersion;
+
+    private final File directory;
+
+    public QuackBytecodeCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Evaluate {@code script} from its cached bytecode, compiling and caching it if necessary.
+     *
+     * @throws QuackException if there is an error compiling or evaluating the script.
+     */
+    public Object evaluate(QuackContext quackContext, String script, String fileName) {
+        return quackContext.evaluateBytecode(getBytecode(quackContext, script, fileName, false));
+    }
+
+    /**
+     * Evaluate the module {@code script} from its cached bytecode, compiling and caching it if necessary.
+     *
+     * @throws QuackException if there is an error compiling or evaluating the module.
+     */
+    public Object evaluateModule(QuackContext quackContext, String script, String fileName) {
+        return quackContext.evaluateBytecode(getBytecode(quackContext, script, fileName, true));
+    }
+
+    /**
+     * Get the cached bytecode of a script or module, compiling and caching it if necessary.
+     */
+    public ByteBuffer getBytecode(QuackContext quackContext, String script, String fileName, boolean module) {
+        File file = new File(directory, getKey(script, fileName, module));
+        if (file.isFile()) {
+            ByteBuffer bytecode = null;
+            try {
+                bytecode = map(file);
+            }
+            catch (IOException e) {
+            }
+            if (bytecode != null)
+                return bytecode;
+            // unreadable or damaged, compile and replace it.
+            file.delete();
+        }
+
+        byte[] bytecode = module ? quackContext.compileModuleBytecode(script, fileName) : quackContext.compileBytecode(script, fileName);
+        try {
+            write(file, bytecode);
+        }
+        catch (IOException e) {
+            // caching is best effort.
+        }
+        return ByteBuffer.wrap(bytecode);
+    }
+
+    /**
+     * Delete all cached bytecode.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file: files) {
+            if (file.getName().endsWith(".qjsc"))
+                file.delete();
+        }
+    }
+
+    /**
+     * The bytecode of a cache file, or null if it does not match the length and digest in its header.
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        ByteBuffer mapped;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping remains valid after the channel is closed.
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+
+        if (mapped.remaining() < HEADER_LENGTH)
+            return null;
+        int length = mapped.getInt();
+        byte[] expected = new byte[DIGEST_LENGTH];
+        mapped.get(expected);
+        if (length != mapped.remaining())
+            return null;
+        ByteBuffer bytecode = mapped.slice();
+        MessageDigest digest = newDigest();
+        digest.update(mapped);
+        if (!MessageDigest.isEqual(expected, digest.digest()))
+            return null;
+        return bytecode;
+    }
+
+    private void write(File file, byte[] bytecode) throws IOException {
+        directory.mkdirs();
+        // write then rename, so concurrent readers never see a partial file.
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(bytecode.length);
+                header.put(newDigest().digest(bytecode));
+                out.write(header.array());
+                out.write(bytecode);
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("unable to rename " + tmp + " to " + file);
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String getKey(String script, String fileName, boolean module) {
+        MessageDigest digest = newDigest();
+        String version = bytecodeVersion;
+        if (version == null)
+            bytecodeVersion = version = QuackContext.getBytecodeVersion();
+        digest.update((CACHE_VERSION + ":" + version + (module ? ":module:" : ":script:") + fileName + "\0").getBytes(UTF8));
+        digest.update(script.getBytes(UTF8));
+        StringBuilder ret = new StringBuilder();
+        for (byte b: digest.digest()) {
+            ret.append(String.format("%02x", b));
+        }
+        return ret.append(".qjsc").toString();
+    }
+}
@@ -1,6 +1,5 @@
 package com.koushikdutta.quack;
 
-import java.lang.reflect.Array;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -40,22 +39,26 @@ public class QuackCoercions {
      * put coercion to be chained.
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private static void putChain(Map<Class, QuackCoercion> target, QuackCoercion<Object, Object> coercion) {
-        target.put(Object.class, Chain.chain(target.get(Object.class), coercion));
+    private static QuackCoercion<Object, Object> chain(Map<Class, QuackCoercion> target, QuackCoercion<Object, Object> coercion) {
+        return Chain.chain(target.get(Object.class), coercion);
     }
 
     /**
      * put coercion to JavaScriptObject From Java Object
      */
     public static void putFromObject(QuackContext quackContext, QuackCoercion<Object, Object> coercion) {
-        putChain(quackContext.JavaToJavascriptCoercions, coercion);
+        synchronized (quackContext) {
+            quackContext.putJavaToJavaScriptCoercion(Object.class, chain(quackContext.JavaToJavascriptCoercions, coercion));
+        }
     }
 
     /**
      * put coercion from JavaScriptObject to Java Object
      */
     public static void putToObject(QuackContext quackContext, QuackCoercion<Object, Object> coercion) {
-        putChain(quackContext.JavaScriptToJavaCoercions, coercion);
+        synchronized (quackContext) {
+            quackContext.putJavaScriptToJavaCoercion(Object.class, chain(quackContext.JavaScriptToJavaCoercions, coercion));
+        }
     }
 
     private QuackCoercions() {
@@ -102,12 +105,7 @@ public class QuackCoercions {
      */
     public static void putFromList(QuackContext quackContext) {
         quackContext.putJavaToJavaScriptCoercion(List.class, (clazz, o) -> {
-            JavaScriptObject jso = quackContext.evaluateForJavaScriptObject("([])");
-            int index = 0;
-            for (Object obj : o) {
-                jso.set(index++, quackContext.coerceJavaToJavaScript(obj));
-            }
-            return jso;
+            return quackContext.toJavaScriptArray(o.toArray());
         });
     }
 
@@ -119,12 +117,7 @@ public class QuackCoercions {
             if (!clazz.isArray()) {
                 return null;
             }
-            JavaScriptObject jso = quackContext.evaluateForJavaScriptObject("([])");
-            for (int index = 0; index < Array.getLength(o); index += 1) {
-                Object value = Array.get(o, index);
-                jso.set(index, quackContext.coerceJavaToJavaScript(value));
-            }
-            return jso;
+            return quackContext.toJavaScriptArray(o);
         });
     }
 
@@ -145,7 +138,7 @@ public class QuackCoercions {
      */
     public static void putFromMap(QuackContext quackContext) {
         quackContext.putJavaToJavaScriptCoercion(Map.class, (clazz, o) -> {
-            JavaScriptObject jso = quackContext.evaluateForJavaScriptObject("({})");
+            JavaScriptObject jso = quackContext.newObject();
             for (Object obj : o.entrySet()) {
                 Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
                 jso.set(entry.getKey().toString(), quackContext.coerceJavaToJavaScript(entry.getValue()));
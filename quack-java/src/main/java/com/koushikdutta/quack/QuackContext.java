@@ -16,13 +16,25 @@
 package com.koushikdutta.quack;
 
 import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +49,10 @@ public final class QuackContext implements Closeable {
   final Map<Class, QuackCoercion> JavaToJavascriptCoercions = new LinkedHashMap<>();
   final Map<Method, QuackMethodCoercion> JavaScriptToJavaMethodCoercions = new LinkedHashMap<>();
   final Map<Method, QuackMethodCoercion> JavaToJavascriptMethodCoercions = new LinkedHashMap<>();
+  // coercions resolved per class, including superclass catch alls (ie, Enum.class or the Object.class chain).
+  // replaced, rather than cleared, when a coercion is registered, so a racing resolution can not be cached.
+  private volatile ConcurrentHashMap<Class, QuackCoercion> resolvedJavaScriptToJavaCoercions = new ConcurrentHashMap<>();
+  private volatile ConcurrentHashMap<Class, QuackCoercion> resolvedJavaToJavaScriptCoercions = new ConcurrentHashMap<>();
   private QuackInvocationHandlerWrapper invocationHandlerWrapper;
 
   protected final static Logger logger = Logger.getLogger(QuackContext.class.getName());
@@ -163,6 +179,7 @@ public final class QuackContext implements Closeable {
    */
   public synchronized <T> void putJavaScriptToJavaCoercion(Class<T> clazz, QuackCoercion<T, Object> coercion) {
     JavaScriptToJavaCoercions.put(clazz, coercion);
+    resolvedJavaScriptToJavaCoercions = new ConcurrentHashMap<>();
   }
 
   /**
@@ -174,6 +191,7 @@ public final class QuackContext implements Closeable {
    */
   public synchronized <F> void putJavaToJavaScriptCoercion(Class<F> clazz, QuackCoercion<Object, F> coercion) {
     JavaToJavascriptCoercions.put(clazz, coercion);
+    resolvedJavaToJavaScriptCoercions = new ConcurrentHashMap<>();
   }
 
   /**
@@ -213,11 +231,15 @@ public final class QuackContext implements Closeable {
       o = coerced;
     }
 
-    Object ret = coerceJavaToJavaScript(JavaToJavascriptCoercions, o, clazz);
+    Object ret = getJavaToJavaScriptCoercion(clazz).coerce(clazz, o);
     if (ret != null)
       return ret;
 
 
+    // these are called natively with unboxed numbers.
+    if (o instanceof QuackDoubleFunction || o instanceof QuackDoubleBinaryFunction)
+      return o;
+
     // automatically coerce functional interfaces into functions
     Method method = getLambdaMethod(clazz);
     if (method != null) {
@@ -229,8 +251,8 @@ public final class QuackContext implements Closeable {
         }
 
         @Override
-        protected Method[] getMethods(Object thiz) {
-          return clazz.getMethods();
+        OverloadResolver getResolver(Object thiz) {
+          return ClassBinding.of(clazz).getResolver(method.getName());
         }
       };
     }
@@ -242,16 +264,18 @@ public final class QuackContext implements Closeable {
     if (!clazz.isInterface())
       return null;
 
-    Method match = null;
-    for (Method method: clazz.getMethods()) {
-      if (!Modifier.isStatic(method.getModifiers())) {
-        if (match != null)
-          return null;
-        match = method;
+    return lambdaMethods.memoize(() -> {
+      Method match = null;
+      for (Method method: clazz.getMethods()) {
+        if (!Modifier.isStatic(method.getModifiers())) {
+          if (match != null)
+            return null;
+          match = method;
+        }
       }
-    }
 
-    return match;
+      return match;
+    }, clazz);
   }
 
   public Object coerceJavaScriptToJava(Type type, Class<?> clazz, Object o) {
@@ -287,6 +311,30 @@ public final class QuackContext implements Closeable {
     return coerceJavaScriptToJava(clazz, o);
   }
 
+  private static boolean isBoxedClass(Class<?> clazz, Object o) {
+    return (clazz == boolean.class && o instanceof Boolean)
+            || (clazz == byte.class && o instanceof Byte)
+            || (clazz == short.class && o instanceof Short)
+            || (clazz == int.class && o instanceof Integer)
+            || (clazz == long.class && o instanceof Long)
+            || (clazz == float.class && o instanceof Float)
+            || (clazz == double.class && o instanceof Double);
+  }
+
+  private static Object narrowDouble(Class<?> clazz, Double d) {
+    if (clazz == byte.class || clazz == Byte.class)
+      return d.byteValue();
+    if (clazz == short.class || clazz == Short.class)
+      return d.shortValue();
+    if (clazz == int.class || clazz == Integer.class)
+      return d.intValue();
+    if (clazz == float.class || clazz == Float.class)
+      return d.floatValue();
+    if (clazz == long.class || clazz == Long.class)
+      return d.longValue();
+    return null;
+  }
+
   /**
    * Coerce a JavaScript value into an equivalent Java object.
    */
@@ -305,45 +353,44 @@ public final class QuackContext implements Closeable {
       return o;
 
     // unbox needs no coercion.
-    if (clazz == boolean.class && o instanceof Boolean)
-      return o;
-    if (clazz == byte.class && o instanceof Byte)
-      return o;
-    if (clazz == short.class && o instanceof Short)
-      return o;
-    if (clazz == int.class && o instanceof Integer)
-      return o;
-    if (clazz == long.class && o instanceof Long)
-      return o;
-    if (clazz == float.class && o instanceof Float)
-      return o;
-    if (clazz == double.class && o instanceof Double)
+    if (clazz.isPrimitive() && isBoxedClass(clazz, o))
       return o;
 
     // javascript only uses doubles.
-    if ((clazz == byte.class || clazz == Byte.class) && o instanceof Double)
-      return ((Double)o).byteValue();
-    if ((clazz == short.class || clazz == Short.class) && o instanceof Double)
-      return ((Double)o).shortValue();
-    if ((clazz == int.class || clazz == Integer.class) && o instanceof Double)
-      return ((Double)o).intValue();
-    if ((clazz == float.class || clazz == Float.class) && o instanceof Double)
-      return ((Double)o).floatValue();
-    if ((clazz == long.class || clazz == Long.class) && o instanceof Double)
-      return ((Double)o).longValue();
+    if (o instanceof Double) {
+      Object narrowed = narrowDouble(clazz, (Double)o);
+      if (narrowed != null)
+        return narrowed;
+    }
 
     if (clazz.isArray() && o instanceof JavaScriptObject) {
+      // the elements are copied with a single call, the JavaScriptObject may belong to another context.
       JavaScriptObject jo = (JavaScriptObject)o;
-      int length = ((Number)jo.get("length")).intValue();
       Class componentType = clazz.getComponentType();
-      Object ret = Array.newInstance(componentType, length);
-      for (int i = 0; i < length; i++) {
-        Array.set(ret, i, coerceJavaScriptToJava(componentType, jo.get(i)));
+      int kind = getArrayKind(componentType);
+      if (kind != ARRAY_OBJECT) {
+        // null if the elements are not all numbers, those are coerced one by one below.
+        Object ret = jo.quackContext.toJavaArray(jo.getNativePointer(), kind);
+        if (ret != null)
+          return ret;
+      }
+      Object[] values = (Object[])jo.quackContext.toJavaArray(jo.getNativePointer(), ARRAY_OBJECT);
+      if (values == null)
+        return null;
+      if (componentType == Object.class) {
+        for (int i = 0; i < values.length; i++) {
+          values[i] = coerceJavaScriptToJava(componentType, values[i]);
+        }
+        return values;
+      }
+      Object ret = Array.newInstance(componentType, values.length);
+      for (int i = 0; i < values.length; i++) {
+        Array.set(ret, i, coerceJavaScriptToJava(componentType, values[i]));
       }
       return ret;
     }
 
-    Object ret = coerceJavaScriptToJava(JavaScriptToJavaCoercions, o, clazz);
+    Object ret = getJavaScriptToJavaCoercion(clazz).coerce(clazz, o);
     if (ret != null)
       return ret;
 
@@ -409,13 +456,22 @@ public final class QuackContext implements Closeable {
     return invokeMethodReferenceProxy(clazz, ref);
   }
 
-  static Memoize<Field> javaObjectFields = new Memoize<>();
-  static Memoize<Boolean> javaObjectMethods = new Memoize<>();
-  static Memoize<Method> javaObjectGetter = new Memoize<>();
-  static Memoize<Method> javaObjectSetter = new Memoize<>();
-  static Memoize<Method> javaObjectMethodCandidates = new Memoize<>();
-  static Memoize<Constructor> javaObjectConstructorCandidates = new Memoize<>();
-  static Memoize<Method> interfaceMethods = new Memoize<>();
+  /**
+   * Invoke Java methods and constructors called from JavaScript through cached MethodHandles
+   * rather than reflection. Enabled by default, except on Android, where MethodHandles
+   * require API 26.
+   */
+  public static void setMethodHandleInvokers(boolean enabled) {
+    MethodInvoker.setUseMethodHandles(enabled);
+  }
+  public static boolean getMethodHandleInvokers() {
+    return MethodInvoker.getUseMethodHandles();
+  }
+
+  // reflection caches are shared by every QuackContext, so bound them.
+  static final int REFLECTION_CACHE_SIZE = 4096;
+  static Memoize<Method> interfaceMethods = new Memoize<>(REFLECTION_CACHE_SIZE);
+  static Memoize<Method> lambdaMethods = new Memoize<>(REFLECTION_CACHE_SIZE);
   static Method getInterfaceMethod(Method method) {
     return interfaceMethods.memoize(() -> {
       if (method.getDeclaringClass().isInterface())
@@ -505,41 +561,70 @@ public final class QuackContext implements Closeable {
     throw new IllegalArgumentException("interface method was not called by lambda.");
   }
 
-  private static Object coerceJavaToJavaScript(Map<Class, QuackCoercion> coerce, Object o, Class<?> clazz) {
-    QuackCoercion coercion = coerce.get(clazz);
-    if (coercion != null) {
-      return coercion.coerce(clazz, o);
+  // ConcurrentHashMap does not permit null values.
+  private static final QuackCoercion NO_COERCION = (clazz, o) -> null;
+  private static final QuackCoercion SUPERCLASS_COERCION = (clazz, o) -> {
+    throw new AssertionError("Superclass converter not implemented.");
+  };
+
+  private QuackCoercion getJavaToJavaScriptCoercion(Class<?> clazz) {
+    ConcurrentHashMap<Class, QuackCoercion> resolved = resolvedJavaToJavaScriptCoercions;
+    QuackCoercion coercion = resolved.get(clazz);
+    if (coercion == null) {
+      coercion = resolveJavaToJavaScriptCoercion(JavaToJavascriptCoercions, clazz);
+      resolved.put(clazz, coercion);
+    }
+    return coercion;
+  }
+
+  // the coercion for values of exactly this class, or null if they are passed as is.
+  QuackCoercion getExactJavaToJavaScriptCoercion(Class<?> clazz) {
+    QuackCoercion coercion = getJavaToJavaScriptCoercion(clazz);
+    return coercion == NO_COERCION ? null : coercion;
+  }
+
+  private QuackCoercion getJavaScriptToJavaCoercion(Class<?> clazz) {
+    ConcurrentHashMap<Class, QuackCoercion> resolved = resolvedJavaScriptToJavaCoercions;
+    QuackCoercion coercion = resolved.get(clazz);
+    if (coercion == null) {
+      coercion = resolveJavaScriptToJavaCoercion(JavaScriptToJavaCoercions, clazz);
+      resolved.put(clazz, coercion);
     }
+    return coercion;
+  }
+
+  private static QuackCoercion resolveJavaToJavaScriptCoercion(Map<Class, QuackCoercion> coerce, Class<?> clazz) {
+    QuackCoercion coercion = coerce.get(clazz);
+    if (coercion != null)
+      return coercion;
 
     // check to see if there is a superclass converter (ie, Enum.class as a catch all).
     for (Map.Entry<Class, QuackCoercion> check: coerce.entrySet()) {
       if (check.getKey().isAssignableFrom(clazz))
-        return check.getValue().coerce(clazz, o);
+        return check.getValue();
     }
 
-    return null;
+    return NO_COERCION;
   }
 
-  private static Object coerceJavaScriptToJava(Map<Class, QuackCoercion> coerce, Object o, Class<?> clazz) {
+  private static QuackCoercion resolveJavaScriptToJavaCoercion(Map<Class, QuackCoercion> coerce, Class<?> clazz) {
     QuackCoercion coercion = coerce.get(clazz);
-    if (coercion != null) {
-      return coercion.coerce(clazz, o);
-    }
+    if (coercion != null)
+      return coercion;
 
     // check to see if there exists a more specific superclass converter.
     for (Map.Entry<Class, QuackCoercion> check: coerce.entrySet()) {
-      if (clazz.isAssignableFrom(check.getKey())) {
-        throw new AssertionError("Superclass converter not implemented.");
-      }
+      if (clazz.isAssignableFrom(check.getKey()))
+        return SUPERCLASS_COERCION;
     }
 
     // check to see if there is a subclass converter (ie, Enum.class as a catch all).
     for (Map.Entry<Class, QuackCoercion> check: coerce.entrySet()) {
       if (check.getKey().isAssignableFrom(clazz))
-        return check.getValue().coerce(clazz, o);
+        return check.getValue();
     }
 
-    return null;
+    return NO_COERCION;
   }
 
   /**
@@ -547,20 +632,56 @@ public final class QuackContext implements Closeable {
    * calls to {@link #close()} on the returned instance to avoid leaking native memory.
    */
   public static QuackContext create() {
-    QuackContext quack = new QuackContext(true);
+    QuackContext quack = new QuackContext(true, new ReentrantLock());
     // context will hold a weak ref, so this doesn't matter if it fails.
     long context = createContext(quack, true);
     if (context == 0) {
       throw new OutOfMemoryError("Cannot create QuickJS instance");
     }
     quack.context = context;
+    quack.jobsPending = getJobsPendingFlag(context);
     listener.onCreate(context, quack);
     return quack;
   }
 
-  private long context;
+  /**
+   * Create a new interpreter instance that shares the QuickJS runtime of this one.
+   * Siblings have their own globals and coercions, but share the atom table, shapes and
+   * garbage collected heap, so they are much cheaper than instances from {@link #create()}.
+   * The runtime is freed when its last context is closed, and calls into contexts sharing a
+   * runtime are serialized. Calls to this method <strong>must</strong> be matched with
+   * calls to {@link #close()} on the returned instance to avoid leaking native memory.
+   */
+  public QuackContext newSiblingContext() {
+    lock.lock();
+    try {
+      if (context == 0)
+        throw new IllegalStateException("QuackContext is closed");
+      // siblings share the lock of their runtime.
+      QuackContext quack = new QuackContext(true, lock);
+      long sibling = createSiblingContext(quack, context);
+      if (sibling == 0) {
+        throw new OutOfMemoryError("Cannot create QuickJS instance");
+      }
+      quack.context = sibling;
+      quack.jobsPending = getJobsPendingFlag(sibling);
+      listener.onCreate(sibling, quack);
+      return quack;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
 
-  private QuackContext(boolean useQuickJS) {
+  private long context;
+  // native flag, non zero when the runtime has pending jobs. only valid while the context is open.
+  private ByteBuffer jobsPending;
+  // guards the native context. a lock rather than a monitor, so virtual threads waiting to
+  // enter the context don't pin their carrier threads.
+  private final ReentrantLock lock;
+
+  private QuackContext(boolean useQuickJS, ReentrantLock lock) {
+    this.lock = lock;
     // coercing javascript string into an enum for java
     JavaScriptToJavaCoercions.put(Enum.class, (QuackCoercion<Enum, Object>) (clazz, o) -> {
       if (o == null)
@@ -615,6 +736,9 @@ public final class QuackContext implements Closeable {
       direct.flip();
       return direct;
     });
+
+    // java async results become promises.
+    putJavaToJavaScriptCoercion(CompletionStage.class, (clazz, o) -> toPromise(o));
   }
 
   private long totalElapsedScriptExecutionMs;
@@ -641,16 +765,22 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized <T> T evaluate(Class<T> clazz, String script, String fileName) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+  public <T> T evaluate(Class<T> clazz, String script, String fileName) {
+    lock.lock();
     try {
-      return (T)coerceJavaScriptToJava(clazz, evaluate(context, script, fileName));
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return (T)coerceJavaScriptToJava(clazz, evaluate(context, script, fileName));
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
 
@@ -660,7 +790,7 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized Object evaluate(String script, String fileName) {
+  public Object evaluate(String script, String fileName) {
     return evaluate(null, script, fileName);
   }
 
@@ -670,16 +800,22 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized JavaScriptObject evaluateModule(String script, String fileName) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+  public JavaScriptObject evaluateModule(String script, String fileName) {
+    lock.lock();
     try {
-      return (JavaScriptObject)coerceJavaScriptToJava(JavaScriptObject.class, evaluateModule(context, script, fileName));
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return (JavaScriptObject)coerceJavaScriptToJava(JavaScriptObject.class, evaluateModule(context, script, fileName));
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
 
@@ -689,7 +825,7 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized JavaScriptObject evaluateModule(String script) {
+  public JavaScriptObject evaluateModule(String script) {
     return evaluateModule(script, "?");
   }
 
@@ -698,10 +834,46 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized Object evaluate(String script) {
+  public Object evaluate(String script) {
     return evaluate(script, "?");
   }
 
+  /**
+   * Evaluate {@code script} if the context can be entered before the timeout elapses, for
+   * callers that should not wait indefinitely for another thread using the context.
+   *
+   * @throws TimeoutException if the context is still in use after the timeout.
+   * @throws QuackException if there is an error evaluating the script.
+   */
+  public Object tryEvaluate(String script, String fileName, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+    if (!lock.tryLock(timeout, unit))
+      throw new TimeoutException("QuackContext is in use");
+    try {
+      return evaluate(script, fileName);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Evaluate {@code script} if the context can be entered before the timeout elapses.
+   *
+   * @see #tryEvaluate(String, String, long, TimeUnit)
+   */
+  public Object tryEvaluate(String script, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+    return tryEvaluate(script, "?", timeout, unit);
+  }
+
+  /**
+   * The lock held while the context is in use. Hold it to make several calls without other
+   * threads interleaving, or use {@link ReentrantLock#tryLock(long, TimeUnit)} to bound the wait
+   * for any operation. Sibling contexts share the lock of their runtime.
+   */
+  public ReentrantLock getLock() {
+    return lock;
+  }
+
   /**
    * Evaluate {@code script} and return the expected result of a specific type.
    * @param script
@@ -709,7 +881,7 @@ public final class QuackContext implements Closeable {
    * @param <T>
    * @return
    */
-  public synchronized <T> T evaluate(String script, Class<T> clazz) {
+  public <T> T evaluate(String script, Class<T> clazz) {
       return (T)coerceJavaScriptToJava(clazz, evaluate(script));
   }
 
@@ -718,7 +890,7 @@ public final class QuackContext implements Closeable {
    * @param script
    * @return
    */
-  public synchronized JavaScriptObject evaluateForJavaScriptObject(String script) {
+  public JavaScriptObject evaluateForJavaScriptObject(String script) {
     return evaluate(script, JavaScriptObject.class);
   }
 
@@ -727,36 +899,162 @@ public final class QuackContext implements Closeable {
    *
    * @throws QuackException if there is an error evaluating the script.
    */
-  public synchronized JavaScriptObject compileFunction(String script, String fileName) {
-    return compileFunction(context, script, fileName);
+  public JavaScriptObject compileFunction(String script, String fileName) {
+    lock.lock();
+    try {
+      return compileFunction(context, script, fileName);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Compile {@code script} to QuickJS bytecode without running it. The bytecode can be run
+   * by {@link #evaluateBytecode(byte[])} in any context, skipping the parser.
+   * Bytecode is only compatible with the same build of the native library.
+   *
+   * @throws QuackException if there is an error compiling the script.
+   */
+  public byte[] compileBytecode(String script, String fileName) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return compileBytecode(context, script, fileName, false);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Compile the module {@code script} to QuickJS bytecode without running it.
+   *
+   * @see #compileBytecode(String, String)
+   */
+  public byte[] compileModuleBytecode(String script, String fileName) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return compileBytecode(context, script, fileName, true);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Evaluate the bytecode of a script or module, and return the expected result of a specific type.
+   * The bytecode is not verified, so it must come from a trusted source such as
+   * {@link #compileBytecode(String, String)}.
+   *
+   * @throws QuackException if there is an error evaluating the bytecode.
+   */
+  public <T> T evaluateBytecode(Class<T> clazz, byte[] bytecode) {
+    return evaluateBytecodeInternal(clazz, bytecode);
+  }
+
+  /**
+   * Evaluate the bytecode of a script or module.
+   *
+   * @see #evaluateBytecode(Class, byte[])
+   */
+  public Object evaluateBytecode(byte[] bytecode) {
+    return evaluateBytecodeInternal(null, bytecode);
+  }
+
+  /**
+   * Evaluate the bytecode of a script or module, read from the remaining bytes of the buffer.
+   * Direct buffers, such as memory mapped files, are read in place.
+   *
+   * @see #evaluateBytecode(Class, byte[])
+   */
+  public Object evaluateBytecode(ByteBuffer bytecode) {
+    if (bytecode.isDirect())
+      return evaluateBytecodeInternal(null, bytecode);
+    byte[] bytes = new byte[bytecode.remaining()];
+    bytecode.duplicate().get(bytes);
+    return evaluateBytecodeInternal(null, bytes);
+  }
+
+  private <T> T evaluateBytecodeInternal(Class<T> clazz, Object bytecode) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return (T)coerceJavaScriptToJava(clazz, evaluateBytecode(context, bytecode));
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
   }
 
   /**
    * Release the native resources associated with this object. You <strong>must</strong> call this
    * method for each instance to avoid leaking native memory.
    */
-  @Override public synchronized void close() {
-    listener.onClose(context, this);
-    if (context != 0) {
-      long contextToClose = context;
-      context = 0;
-      destroyContext(contextToClose);
+  @Override public void close() {
+    lock.lock();
+    try {
+      listener.onClose(context, this);
+      if (context != 0) {
+        long contextToClose = context;
+        // siblings may keep the runtime, and its atoms, alive.
+        if (!atoms.isEmpty()) {
+          int[] retained = new int[atoms.size()];
+          int i = 0;
+          for (QuackAtom atom: atoms.values()) {
+            retained[i++] = atom.atom;
+          }
+          freeAtoms(contextToClose, retained);
+        }
+        context = 0;
+        destroyContext(contextToClose);
+      }
+      atoms.clear();
+      helpers.clear();
+      nativeMappings.clear();
+      references.clear();
+      releasedReferences.clear();
+    }
+    finally {
+      lock.unlock();
     }
-    nativeMappings.clear();
   }
 
-  @Override protected synchronized void finalize() throws Throwable {
-    // this isn't THAT bad, as JavaScriptObjects may be passed around without concern for the
-    // QuickJS collection.
-    if (context != 0) {
-      listener.onLeaked(context, this);
-      // definitely close it though.
-      close();
+  @Override protected void finalize() throws Throwable {
+    lock.lock();
+    try {
+      // this isn't THAT bad, as JavaScriptObjects may be passed around without concern for the
+      // QuickJS collection.
+      if (context != 0) {
+        listener.onLeaked(context, this);
+        // definitely close it though.
+        close();
+      }
+    }
+    finally {
+      lock.unlock();
     }
   }
 
-  synchronized public JavaScriptObject getGlobalObject() {
-    return getGlobalObject(context);
+  public JavaScriptObject getGlobalObject() {
+    lock.lock();
+    try {
+      return getGlobalObject(context);
+    }
+    finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -764,10 +1062,16 @@ public final class QuackContext implements Closeable {
    * cooperateDebuger is invoked by the caller, the caller must ensure no calls into
    * the QuickJS during that time.
    */
-  public synchronized void cooperateDebugger() {
-    if (context == 0)
-      return;
-    cooperateDebugger(context);
+  public void cooperateDebugger() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return;
+      cooperateDebugger(context);
+    }
+    finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -792,180 +1096,795 @@ public final class QuackContext implements Closeable {
    * Send an custom app notification to any connected debugging client.
    * @param args
    */
-  public synchronized void debuggerAppNotify(Object... args) {
-    if (context == 0)
-      return;
-    debuggerAppNotify(context, args);
-  }
-
-  synchronized Object getKeyObject(long object, Object key) {
-    if (context == 0)
-      return null;
-    return getKeyObject(context, object, key);
-  }
-  synchronized Object getKeyString(long object, String key) {
-    if (context == 0)
-      return null;
-    return getKeyString(context, object, key);
-  }
-  synchronized Object getKeyInteger(long object, int index) {
-    if (context == 0)
-      return null;
-    return getKeyInteger(context, object, index);
-  }
-  synchronized boolean setKeyObject(long object, Object key, Object value) {
-    if (context == 0)
-      return false;
-    return setKeyObject(context, object, key, value);
-  }
-  synchronized boolean setKeyString(long object, String key, Object value) {
-    if (context == 0)
-      return false;
-    return setKeyString(context, object, key, value);
-  }
-  synchronized boolean setKeyInteger(long object, int index, Object value) {
-    if (context == 0)
-      return false;
-    return setKeyInteger(context, object, index, value);
-  }
-  synchronized Object call(long object, Object... args) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+  public void debuggerAppNotify(Object... args) {
+    lock.lock();
     try {
-      return call(context, object, args);
+      if (context == 0)
+        return;
+      debuggerAppNotify(context, args);
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
-  synchronized Object callConstructor(long object, Object... args) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+
+  Object getKeyObject(long object, Object key) {
+    lock.lock();
     try {
-      return callConstructor(context, object, args);
+      if (context == 0)
+        return null;
+      return getKeyObject(context, object, key);
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
-  synchronized Object callMethod(long object, Object thiz, Object... args) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+  Object getKeyString(long object, String key) {
+    lock.lock();
     try {
-      return callMethod(context, object, thiz, args);
+      if (context == 0)
+        return null;
+      return getKeyString(context, object, key);
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
-  synchronized Object callProperty(long object, Object property, Object... args) {
-    if (context == 0)
-      return null;
-    long start = System.nanoTime() / 1000000;
+  Object getKeyInteger(long object, int index) {
+    lock.lock();
     try {
-      return callProperty(context, object, property, args);
+      if (context == 0)
+        return null;
+      return getKeyInteger(context, object, index);
     }
     finally {
-      totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
-      handlePostInvocation();
+      lock.unlock();
     }
   }
-  synchronized String stringify(long object) {
+  boolean setKeyObject(long object, Object key, Object value) {
+    lock.lock();
+    try {
       if (context == 0)
-        return null;
-      return stringify(context, object);
-  }
-  public synchronized long getHeapSize() {
-    if (context == 0)
-      return 0;
-    return getHeapSize(context);
-  }
-
-  private interface Thrower {
-    void doThrow() throws Throwable;
+        return false;
+      return setKeyObject(context, object, key, value);
+    }
+    finally {
+      lock.unlock();
+    }
   }
-  private interface Catcher {
-    JavaScriptObject doCatch(Thrower thrower);
+  private static final int HELPER_CACHE_SIZE = 64;
+  // least recently used first.
+  private final LinkedHashMap<String, JavaScriptObject> helpers = new LinkedHashMap<String, JavaScriptObject>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, JavaScriptObject> eldest) {
+      // evicted helpers may still be in use, so they are left to be collected.
+      return size() > HELPER_CACHE_SIZE;
+    }
+  };
+  /**
+   * Evaluate {@code script}, an expression of built in values such as a function used by
+   * the library, once, rather than on every use. The result is kept in a small LRU cache
+   * keyed by the script until this context is closed.
+   */
+  JavaScriptObject helper(String script) {
+    lock.lock();
+    try {
+      JavaScriptObject helper = helpers.get(script);
+      if (helper == null && context != 0) {
+        helper = unscoped(evaluateForJavaScriptObject(script));
+        helpers.put(script, helper);
+      }
+      return helper;
+    }
+    finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized JavaScriptObject newError(Throwable t) {
-    if (context == 0)
-      return null;
+  private final HashMap<String, QuackAtom> atoms = new HashMap<>();
+  /**
+   * Get the interned property key for {@code name}. The same instance is returned for the
+   * same name, and it is retained until this context is closed, so this is intended for a
+   * bounded set of frequently accessed keys.
+   */
+  public QuackAtom atom(String name) {
+    if (name == null)
+      throw new NullPointerException();
+    lock.lock();
     try {
-      Thrower thrower = () -> {
-        throw t;
-      };
-      Catcher catcher = evaluate("(function(t) { try { t(); } catch (e) { return e } })", Catcher.class);
-      return catcher.doCatch(thrower);
+      if (context == 0)
+        throw new IllegalStateException("QuackContext is closed");
+      QuackAtom atom = atoms.get(name);
+      if (atom == null) {
+        atom = new QuackAtom(this, newAtom(context, name), name);
+        atoms.put(name, atom);
+      }
+      return atom;
     }
-    catch (Throwable unexpected) {
-      return null;
+    finally {
+      lock.unlock();
     }
   }
-
-  public synchronized void throwObject(Object o) {
-    if (context == 0)
-      return;
-    evaluateForJavaScriptObject("(function(t) { throw t; })").call(o);
+  private int checkAtom(QuackAtom atom) {
+    if (atom.quackContext != this)
+      throw new IllegalArgumentException("QuackAtom belongs to another QuackContext");
+    return atom.atom;
   }
-
-  // to prevent from blocking the JavaScriptObject finalizer, create
-  // a finalization queue for the JS side.
-  final ArrayList<Long> finalizationQueue = new ArrayList<>();
-  // this method should NOT be synchronized at the QuackContext level, so it never blocks a finalizer
-  void finalizeJavaScriptObject(long object) {
-    if (context == 0)
-      return;
-    synchronized (finalizationQueue) {
-      finalizationQueue.add(object);
+  Object getKeyAtom(long object, QuackAtom atom) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return getKeyAtom(context, object, checkAtom(atom));
+    }
+    finally {
+      lock.unlock();
     }
   }
-  synchronized private void finalizeJavaScriptObjects() {
-    long[] copy;
-    synchronized (finalizationQueue) {
-      if (finalizationQueue.isEmpty())
-        return;
-      copy = new long[finalizationQueue.size()];
-      for (int i = 0; i < finalizationQueue.size(); i++) {
-        copy[i] = finalizationQueue.get(i);
-      }
-      finalizationQueue.clear();
+  boolean setKeyAtom(long object, QuackAtom atom, Object value) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return setKeyAtom(context, object, checkAtom(atom), value);
+    }
+    finally {
+      lock.unlock();
     }
-    if (context == 0)
-      return;
-    finalizeJavaScriptObjects(context, copy);
   }
-  synchronized private boolean hasPostInvocationTasks() {
-    synchronized (finalizationQueue) {
-       if (!finalizationQueue.isEmpty())
-         return true;
+  int getKeyInt(long object, Object key) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return 0;
+      if (key instanceof QuackAtom)
+        return getKeyAtomInt(context, object, checkAtom((QuackAtom)key));
+      return getKeyStringInt(context, object, (String)key);
+    }
+    finally {
+      lock.unlock();
     }
-    // this should be called outside of the queue check to prevent weird blocking.
-    return hasPendingJobs(context);
   }
-  synchronized private void handlePostInvocation() {
-    if (!hasPostInvocationTasks())
-        return;
-    if (jobExecutor == null) {
-      runPostInvocation();
-      return;
+  double getKeyDouble(long object, Object key) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return Double.NaN;
+      if (key instanceof QuackAtom)
+        return getKeyAtomDouble(context, object, checkAtom((QuackAtom)key));
+      return getKeyStringDouble(context, object, (String)key);
+    }
+    finally {
+      lock.unlock();
     }
-
-    jobExecutor.execute(this::runPostInvocation);
   }
-  synchronized void runPostInvocation() {
-    if (context == 0)
-      return;
-    finalizeJavaScriptObjects();
-    runJobs(context);
+  boolean setKeyString(long object, String key, Object value) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return setKeyString(context, object, key, value);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  boolean setKeyInteger(long object, int index, Object value) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return setKeyInteger(context, object, index, value);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  Object[] getKeys(long object, String[] keys) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return new Object[keys.length];
+      return getKeys(context, object, keys);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  Object[] getRange(long object, int start, int count) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return new Object[count];
+      return getRange(context, object, start, count);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  boolean setKeys(long object, String[] keys, Object[] values) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return setKeys(context, object, keys, values);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  boolean setRange(long object, int start, Object[] values) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return setRange(context, object, start, values);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  // array kinds for bulk array transfer, matching the native JavaArrayKind.
+  static final int ARRAY_OBJECT = 0;
+  static final int ARRAY_INT = 1;
+  static final int ARRAY_LONG = 2;
+  static final int ARRAY_DOUBLE = 3;
+  private static int getArrayKind(Class<?> componentType) {
+    if (componentType == int.class)
+      return ARRAY_INT;
+    if (componentType == long.class)
+      return ARRAY_LONG;
+    if (componentType == double.class)
+      return ARRAY_DOUBLE;
+    return ARRAY_OBJECT;
+  }
+  Object toJavaArray(long object, int kind) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return toJavaArray(context, object, kind);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Create an empty JavaScript object, without evaluating a script.
+   */
+  public JavaScriptObject newObject() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return newObject(context, null, null);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Create a JavaScript object with the properties {@code shape}, like an object literal,
+   * with a single call into JavaScript. The values are coerced with
+   * {@link #coerceJavaToJavaScript(Object)}.
+   */
+  public JavaScriptObject newObject(QuackAtom[] shape, Object[] values) {
+    if (shape.length != values.length)
+      throw new IllegalArgumentException("expected " + shape.length + " values, got " + values.length);
+    int[] atoms = new int[shape.length];
+    for (int i = 0; i < shape.length; i++) {
+      atoms[i] = checkAtom(shape[i]);
+    }
+    Object[] coerced = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      coerced[i] = coerceJavaToJavaScript(values[i]);
+    }
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return newObject(context, atoms, coerced);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Create a JavaScript Array of {@code length} undefined elements, to be filled in with
+   * {@link JavaScriptObject#set(int, Object)} or {@link JavaScriptObject#setAll(int, Object...)}.
+   */
+  public JavaScriptObject newArray(int length) {
+    if (length < 0)
+      throw new IllegalArgumentException("negative length: " + length);
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return newArray(context, length);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Copy a Java array into a new JavaScript Array with a single call into JavaScript.
+   * The elements of int[], long[] and double[] arrays are copied as numbers, other elements
+   * are coerced with {@link #coerceJavaToJavaScript(Object)}.
+   */
+  public JavaScriptObject toJavaScriptArray(Object array) {
+    Class<?> componentType = array.getClass().getComponentType();
+    if (componentType == null)
+      throw new IllegalArgumentException("not an array: " + array.getClass());
+    int kind = getArrayKind(componentType);
+    if (kind == ARRAY_OBJECT) {
+      Object[] values = new Object[Array.getLength(array)];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = coerceJavaToJavaScript(Array.get(array, i));
+      }
+      array = values;
+    }
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return (JavaScriptObject)fromJavaArray(context, array, kind);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  ByteBuffer encodeBinary(long object) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return encodeBinary(context, object);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  Object call(long object, Object... args) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return call(context, object, args);
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  double callDouble(long object, int argc, double arg0, double arg1, double[] args) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return Double.NaN;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return callDouble(context, object, argc, arg0, arg1, args);
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  Object callConstructor(long object, Object... args) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return callConstructor(context, object, args);
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  Object callMethod(long object, Object thiz, Object... args) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        return callMethod(context, object, thiz, args);
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  Object callProperty(long object, Object property, Object... args) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      long start = System.nanoTime() / 1000000;
+      try {
+        if (property instanceof QuackAtom)
+          return callPropertyAtom(context, object, checkAtom((QuackAtom)property), args);
+        return callProperty(context, object, property, args);
+      }
+      finally {
+        totalElapsedScriptExecutionMs += System.nanoTime() / 1000000 - start;
+        handlePostInvocation();
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  String typeOf(long object) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return typeOf(context, object);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  boolean isInstanceOf(long object, long constructor) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return false;
+      return isInstanceOf(context, object, constructor);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  String stringify(long object) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      return stringify(context, object);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  /**
+   * The memory used by the QuickJS runtime, which includes any sibling contexts.
+   */
+  public long getHeapSize() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return 0;
+      return getHeapSize(context);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Capture the properties of the global object, typically after evaluating a bootstrap script,
+   * so {@link #reset()} can restore them between requests. This replaces any previous checkpoint.
+   * <p>
+   * This is a convenience for reusing a context, <strong>not</strong> isolation between requests.
+   * The checkpoint is shallow: globals added after it are removed, and globals replaced or
+   * deleted are restored, but nothing else is:
+   * <ul>
+   * <li>changes made inside the objects the globals refer to, including the prototypes of the
+   * builtins (ie, {@code Object.prototype}), are not undone.</li>
+   * <li>top level let, const and class declarations are not properties of the global object,
+   * they stay declared, and declaring them again throws a SyntaxError.</li>
+   * <li>modules stay loaded, with their state, and later imports of them are not reevaluated.</li>
+   * </ul>
+   * Requests that must not observe each other should use separate contexts, ie from a
+   * {@link QuackContextPool}, or at least evaluate their scripts inside a function.
+   *
+   * @throws QuackException if the global object can not be captured.
+   */
+  public void checkpoint() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return;
+      checkpoint(context);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Restore the properties of the global object to the last {@link #checkpoint()}.
+   * See {@link #checkpoint()} for the state that is not restored.
+   *
+   * @throws IllegalStateException if there is no checkpoint.
+   */
+  public void reset() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return;
+      if (!reset(context))
+        throw new IllegalStateException("QuackContext has no checkpoint");
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private interface Thrower {
+    void doThrow() throws Throwable;
+  }
+
+  public JavaScriptObject newError(Throwable t) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return null;
+      try {
+        Thrower thrower = () -> {
+          throw t;
+        };
+        JavaScriptObject catcher = helper("(function(t) { try { t(); } catch (e) { return e } })");
+        return (JavaScriptObject)catcher.call(coerceJavaToJavaScript(Thrower.class, thrower));
+      }
+      catch (Throwable unexpected) {
+        return null;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  public void throwObject(Object o) {
+    lock.lock();
+    try {
+      if (context == 0)
+        return;
+      helper("(function(t) { throw t; })").call(o);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  // JavaScriptObjects are tracked with phantom references rather than finalizers, which slow
+  // down the collector and run on an arbitrary thread. the references are released on the
+  // context thread, after invocations.
+  static final class JavaScriptObjectReference extends PhantomReference<JavaScriptObject> {
+    final long pointer;
+
+    JavaScriptObjectReference(JavaScriptObject object, long pointer, ReferenceQueue<? super JavaScriptObject> queue) {
+      super(object, queue);
+      this.pointer = pointer;
+    }
+  }
+  // the references must stay reachable until they are enqueued.
+  private final Set<JavaScriptObjectReference> references = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private final ReferenceQueue<JavaScriptObject> referenceQueue = new ReferenceQueue<>();
+  // references taken off the queue, but not released yet. guarded by the lock.
+  private final ArrayList<JavaScriptObjectReference> releasedReferences = new ArrayList<>();
+  JavaScriptObjectReference track(JavaScriptObject object, long pointer) {
+    JavaScriptObjectReference reference = new JavaScriptObjectReference(object, pointer, referenceQueue);
+    references.add(reference);
+    // only the thread holding the lock can have a scope open.
+    QuackScope current = scope;
+    if (current != null && lock.isHeldByCurrentThread())
+      current.add(object);
+    return reference;
+  }
+
+  // the innermost open scope. guarded by the lock.
+  private QuackScope scope;
+  /**
+   * Open a scope that releases the JavaScriptObjects created within it when it is closed.
+   * The calling thread holds the context until the scope is closed, which <strong>must</strong>
+   * be done on the same thread, typically with try-with-resources.
+   */
+  public QuackScope openScope() {
+    lock.lock();
+    scope = new QuackScope(this, scope);
+    return scope;
+  }
+  void closeScope(QuackScope closing) {
+    if (!lock.isHeldByCurrentThread())
+      throw new IllegalStateException("QuackScope must be closed by the thread that opened it");
+    if (scope != closing)
+      throw new IllegalStateException("QuackScope must be closed in the reverse order it was opened");
+    try {
+      ArrayList<JavaScriptObject> objects = closing.getObjects();
+      long[] pointers = new long[objects.size()];
+      int count = 0;
+      for (JavaScriptObject object: objects) {
+        JavaScriptObjectReference reference = object != null ? object.detach() : null;
+        if (reference == null)
+          continue;
+        // cleared so it is never enqueued.
+        reference.clear();
+        references.remove(reference);
+        pointers[count++] = reference.pointer;
+      }
+      scope = closing.getParent();
+      if (context != 0 && count != 0)
+        finalizeJavaScriptObjects(context, count == pointers.length ? pointers : Arrays.copyOf(pointers, count));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  // this should NOT block on the context, the object is released after the next invocation.
+  void release(JavaScriptObjectReference reference) {
+    reference.enqueue();
+  }
+  private boolean pollReleasedReferences() {
+    // polling an empty queue does not lock.
+    Reference<? extends JavaScriptObject> reference;
+    while ((reference = referenceQueue.poll()) != null) {
+      releasedReferences.add((JavaScriptObjectReference)reference);
+    }
+    return !releasedReferences.isEmpty();
+  }
+  // returns true if the runtime was collected.
+  private boolean finalizeJavaScriptObjects() {
+    lock.lock();
+    try {
+      if (!pollReleasedReferences())
+        return false;
+      long[] pointers = new long[releasedReferences.size()];
+      for (int i = 0; i < pointers.length; i++) {
+        JavaScriptObjectReference reference = releasedReferences.get(i);
+        references.remove(reference);
+        pointers[i] = reference.pointer;
+      }
+      releasedReferences.clear();
+      if (context == 0)
+        return false;
+      finalizeJavaScriptObjects(context, pointers);
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  private boolean hasPostInvocationTasks() {
+    lock.lock();
+    try {
+      if (pollReleasedReferences())
+        return true;
+      // the native side flags pending jobs when leaving the runtime, so no native call is needed.
+      return context != 0 && jobsPending.get(0) != 0;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  private void handlePostInvocation() {
+    lock.lock();
+    try {
+      if (!hasPostInvocationTasks())
+          return;
+      Executor executor = jobExecutor;
+      if (executor == null) {
+        runPostInvocation();
+        return;
+      }
+
+      executor.execute(postInvocation);
+    }
+    finally {
+      lock.unlock();
+    }
   }
-  private Executor jobExecutor;
+  // remove an object that is held internally from the open scopes.
+  private JavaScriptObject unscoped(JavaScriptObject object) {
+    lock.lock();
+    try {
+      for (QuackScope current = scope; current != null; current = current.getParent()) {
+        if (current.remove(object))
+          break;
+      }
+      return object;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  /**
+   * Create a JavaScript Promise that settles when {@code stage} completes.
+   * The promise is settled on the job executor, if one is set, otherwise on the thread that
+   * completes the stage.
+   */
+  public JavaScriptObject toPromise(CompletionStage<?> stage) {
+    JavaScriptObject deferred;
+    lock.lock();
+    try {
+      deferred = (JavaScriptObject)helper("(function() { const deferred = {}; deferred.promise = new Promise((resolve, reject) => { deferred.resolve = resolve; deferred.reject = reject; }); return deferred; })").call();
+    }
+    finally {
+      lock.unlock();
+    }
+
+    // these outlive any open scope.
+    JavaScriptObject resolve = unscoped((JavaScriptObject)deferred.get("resolve"));
+    JavaScriptObject reject = unscoped((JavaScriptObject)deferred.get("reject"));
+    stage.whenComplete((value, error) -> {
+      Runnable settle = () -> {
+        lock.lock();
+        try {
+          if (context == 0)
+            return;
+          if (error == null)
+            resolve.call(value);
+          else if (error instanceof CompletionException && error.getCause() != null)
+            reject.call(error.getCause());
+          else
+            reject.call(error);
+        }
+        finally {
+          lock.unlock();
+        }
+      };
+      Executor executor = jobExecutor;
+      if (executor == null)
+        settle.run();
+      else
+        executor.execute(settle);
+    });
+    return (JavaScriptObject)deferred.get("promise");
+  }
+
+  // the job executor receives this when post invocation work is pending.
+  final Runnable postInvocation = this::runPostInvocation;
+  void runPostInvocation() {
+    lock.lock();
+    try {
+      if (context == 0)
+        return;
+      finalizeJavaScriptObjects();
+      Executor executor = jobExecutor;
+      if (executor == null) {
+        runJobs(context, 0, 0);
+        return;
+      }
+      // yield to the executor between runs, so other work can interleave with long job chains.
+      if (runJobs(context, maxJobsPerRun, maxJobNanosPerRun))
+        executor.execute(postInvocation);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+  // read without the lock, ie when a promise settles on another thread.
+  private volatile Executor jobExecutor;
   synchronized public void setJobExecutor(Executor executor) {
     jobExecutor = executor;
   }
@@ -973,6 +1892,18 @@ public final class QuackContext implements Closeable {
     return jobExecutor;
   }
 
+  private volatile int maxJobsPerRun;
+  private volatile long maxJobNanosPerRun;
+  /**
+   * Limit the promise jobs run at a time when a job executor is set. Once either limit is
+   * reached, the remaining jobs are dispatched to the job executor again. Zero means no limit.
+   * Without a job executor, pending jobs are always run to completion.
+   */
+  synchronized public void setJobLimits(int maxJobs, long maxTime, TimeUnit unit) {
+    maxJobsPerRun = maxJobs;
+    maxJobNanosPerRun = unit.toNanos(maxTime);
+  }
+
   // hooks from js/jni to java
   private Object quackGet(QuackObject quackObject, Object key) {
     return quackObject.get(key);
@@ -990,17 +1921,38 @@ public final class QuackContext implements Closeable {
   private Object quackConstruct(QuackObject quackObject, Object... args) {
     return quackObject.construct(args == null ? empty : args);
   }
-  synchronized public void quackMapNative(Object key, Object value) {
-    nativeMappings.put(key, value);
+  public void quackMapNative(Object key, Object value) {
+    lock.lock();
+    try {
+      // the mapping keeps the object alive for as long as the buffer, not the scope.
+      if (scope != null && value instanceof JavaScriptObject)
+        scope.remove((JavaScriptObject)value);
+      nativeMappings.put(key, value);
+    }
+    finally {
+      lock.unlock();
+    }
   }
   public Object quackUnmapNative(Object key) {
     return nativeMappings.get(key);
   }
-  synchronized public int purgeNativeMappings() {
-    return nativeMappings.purge();
+  public int purgeNativeMappings() {
+    lock.lock();
+    try {
+      return nativeMappings.purge();
+    }
+    finally {
+      lock.unlock();
+    }
   }
-  synchronized public int getMappedNativeCount() {
-    return nativeMappings.size();
+  public int getMappedNativeCount() {
+    lock.lock();
+    try {
+      return nativeMappings.size();
+    }
+    finally {
+      lock.unlock();
+    }
   }
   private long getNativePointer(QuackJavaScriptObject quackJavaScriptObject) {
     if (quackJavaScriptObject.getNativeContext() != context)
@@ -1008,24 +1960,61 @@ public final class QuackContext implements Closeable {
     return quackJavaScriptObject.getNativePointer();
   }
 
+  /**
+   * Collect unreachable JavaScriptObjects and mapped buffers, and release them.
+   * Closing JavaScriptObjects when they are no longer needed releases them without a Java GC.
+   * This does not wait for the collector, objects it has not enqueued yet are released later.
+   */
   public void gc() {
-    for (int i = 0; i < 2; i++) {
-      System.gc();
-      System.gc();
-      finalizeJavaScriptObjects();
-      System.gc();
-      System.gc();
-      purgeNativeMappings();
+    gc(0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Like {@link #gc()}, but if no JavaScriptObject has been released yet, wait up to
+   * {@code timeout} for the collector, which enqueues them on another thread.
+   */
+  public void gc(long timeout, TimeUnit unit) {
+    System.gc();
+    // buffers that were collected release the JavaScriptObjects that kept their memory alive.
+    purgeNativeMappings();
+    System.gc();
+    Reference<? extends JavaScriptObject> reference = null;
+    if (timeout > 0) {
+      try {
+        reference = referenceQueue.remove(Math.max(1, unit.toMillis(timeout)));
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    lock.lock();
+    try {
+      if (reference != null)
+        releasedReferences.add((JavaScriptObjectReference)reference);
+      // collect the shared runtime even if nothing was released, which also reclaims
+      // closed sibling contexts.
+      if (!finalizeJavaScriptObjects() && context != 0)
+        finalizeJavaScriptObjects(context, new long[0]);
+    }
+    finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Identifies the native build, whose bytecode can not be read by other builds.
+   */
+  static native String getBytecodeVersion();
   private static native long getHeapSize(long context);
 
   private static native long createContext(QuackContext quackContext, boolean useQuickJS);
+  private static native long createSiblingContext(QuackContext quackContext, long sibling);
   private static native void destroyContext(long context);
   private static native Object evaluate(long context, String sourceCode, String fileName);
   private static native Object evaluateModule(long context, String sourceCode, String fileName);
   private static native JavaScriptObject compileFunction(long context, String script, String fileName);
+  private static native byte[] compileBytecode(long context, String script, String fileName, boolean module);
+  private static native Object evaluateBytecode(long context, Object bytecode);
 
   private static native void cooperateDebugger(long context);
   private static native void waitForDebugger(long context, String connectionString);
@@ -1033,17 +2022,40 @@ public final class QuackContext implements Closeable {
   private static native void debuggerAppNotify(long context, Object... args);
   private static native Object getKeyObject(long context, long object, Object key);
   private static native Object getKeyString(long context, long object, String key);
+  private static native int newAtom(long context, String name);
+  private static native void freeAtoms(long context, int[] atoms);
+  private static native Object getKeyAtom(long context, long object, int atom);
+  private static native boolean setKeyAtom(long context, long object, int atom, Object value);
+  private static native Object callPropertyAtom(long context, long object, int atom, Object... args);
+  private static native int getKeyStringInt(long context, long object, String key);
+  private static native double getKeyStringDouble(long context, long object, String key);
+  private static native int getKeyAtomInt(long context, long object, int atom);
+  private static native double getKeyAtomDouble(long context, long object, int atom);
   private static native Object getKeyInteger(long context, long object, int index);
   private static native boolean setKeyObject(long context, long object, Object key, Object value);
   private static native boolean setKeyString(long context, long object, String key, Object value);
   private static native boolean setKeyInteger(long context, long object, int index, Object value);
+  private static native Object[] getKeys(long context, long object, String[] keys);
+  private static native JavaScriptObject newObject(long context, int[] atoms, Object[] values);
+  private static native JavaScriptObject newArray(long context, int length);
+  private static native Object toJavaArray(long context, long object, int kind);
+  private static native Object fromJavaArray(long context, Object array, int kind);
+  private static native ByteBuffer encodeBinary(long context, long object);
+  private static native Object[] getRange(long context, long object, int start, int count);
+  private static native boolean setKeys(long context, long object, String[] keys, Object[] values);
+  private static native boolean setRange(long context, long object, int start, Object[] values);
   private static native Object call(long context, long object, Object... args);
+  private static native double callDouble(long context, long object, int argc, double arg0, double arg1, double[] args);
   private static native Object callConstructor(long context, long object, Object... args);
   private static native Object callMethod(long context, long object, Object thiz, Object... args);
   private static native Object callProperty(long context, long object, Object property, Object... args);
   private static native JavaScriptObject getGlobalObject(long context);
   private static native String stringify(long context, long object);
+  private static native String typeOf(long context, long object);
+  private static native boolean isInstanceOf(long context, long object, long constructor);
   private static native void finalizeJavaScriptObjects(long context, long[] objects);
-  private static native boolean hasPendingJobs(long context);
-  private static native void runJobs(long context);
+  private static native ByteBuffer getJobsPendingFlag(long context);
+  private static native boolean runJobs(long context, int maxJobs, long maxNanos);
+  private static native void checkpoint(long context);
+  private static native boolean reset(long context);
 }
@@ -0,0 +1,250 @@
+package com.koushikdutta.quack;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A fixed size pool of pre-warmed QuackContexts.
+ * Every QuackContext serializes its callers, so a single context caps script throughput at one thread.
+ * The pool leases a context to each task, allowing independent tasks to run on as many cores as there are contexts.
+ * Contexts do not share any JavaScript state with each other.
+ */
+public final class QuackContextPool implements Closeable {
+    private final ArrayList<QuackContext> contexts = new ArrayList<>();
+    private final ArrayDeque<QuackContext> idle = new ArrayDeque<>();
+    private final Set<QuackContext> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ExecutorService executor;
+    // guards idle, leased and closed. a lock rather than a monitor, so virtual threads waiting
+    // for a context don't pin their carrier threads.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private boolean closed;
+
+    private QuackContextPool(int size) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "QuackContextPool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = Executors.newFixedThreadPool(size, threadFactory);
+    }
+
+    /**
+     * Create a pool of {@code size} contexts.
+     */
+    public static QuackContextPool create(int size) {
+        return create(size, null, null);
+    }
+
+    /**
+     * Create a pool of {@code size} contexts.
+     * Each context is passed to {@code initializer} (ie, to register coercions),
+     * and then evaluates {@code bootstrapScript}, before it can be leased.
+     * Either may be null.
+     */
+    public static QuackContextPool create(int size, String bootstrapScript, Consumer<QuackContext> initializer) {
+        if (size <= 0)
+            throw new IllegalArgumentException("pool size must be positive");
+
+        QuackContextPool pool = new QuackContextPool(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                QuackContext quackContext = QuackContext.create();
+                pool.contexts.add(quackContext);
+                if (initializer != null)
+                    initializer.accept(quackContext);
+                if (bootstrapScript != null)
+                    quackContext.evaluate(bootstrapScript, "<bootstrap>");
+                pool.idle.add(quackContext);
+            }
+        }
+        catch (RuntimeException e) {
+            pool.executor.shutdown();
+            for (QuackContext quackContext: pool.contexts) {
+                quackContext.close();
+            }
+            throw e;
+        }
+        return pool;
+    }
+
+    /**
+     * The number of contexts owned by this pool.
+     */
+    public int size() {
+        return contexts.size();
+    }
+
+    /**
+     * The number of contexts that are not currently leased.
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lease a context, waiting until one is available. The context <strong>must</strong>
+     * be returned with {@link #release(QuackContext)}.
+     * @throws IllegalStateException if the pool is closed, including while waiting.
+     */
+    public QuackContext borrow() throws InterruptedException {
+        lock.lock();
+        try {
+            ensureOpen();
+            while (idle.isEmpty()) {
+                available.await();
+                ensureOpen();
+            }
+            QuackContext quackContext = idle.poll();
+            leased.add(quackContext);
+            return quackContext;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lease a context, waiting up to the specified timeout.
+     * @return the context, or null if none became available.
+     * @throws IllegalStateException if the pool is closed, including while waiting.
+     */
+    public QuackContext borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            ensureOpen();
+            while (idle.isEmpty()) {
+                if (remaining <= 0)
+                    return null;
+                remaining = available.awaitNanos(remaining);
+                ensureOpen();
+            }
+            QuackContext quackContext = idle.poll();
+            leased.add(quackContext);
+            return quackContext;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a context previously leased with {@link #borrow()}.
+     * @throws IllegalStateException if the context is not currently leased, ie if it was already released.
+     */
+    public void release(QuackContext quackContext) {
+        if (!contexts.contains(quackContext))
+            throw new IllegalArgumentException("QuackContext does not belong to this pool");
+        lock.lock();
+        try {
+            if (!leased.remove(quackContext))
+                throw new IllegalStateException("QuackContext is not leased");
+            if (!closed) {
+                idle.add(quackContext);
+                available.signal();
+                return;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        quackContext.close();
+    }
+
+    /**
+     * Run {@code task} with a leased context on the pool's threads.
+     */
+    public <T> CompletableFuture<T> submit(Function<QuackContext, T> task) {
+        return submit(task, executor);
+    }
+
+    /**
+     * Run {@code task} with a leased context on the provided executor.
+     */
+    public <T> CompletableFuture<T> submit(Function<QuackContext, T> task, Executor executor) {
+        lock.lock();
+        try {
+            ensureOpen();
+        }
+        finally {
+            lock.unlock();
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            QuackContext quackContext;
+            try {
+                quackContext = borrow();
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                future.complete(task.apply(quackContext));
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            finally {
+                release(quackContext);
+            }
+        });
+        return future;
+    }
+
+    // must hold the lock.
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("QuackContextPool is closed");
+    }
+
+    /**
+     * Close the pool. Idle contexts are closed immediately, leased contexts are closed when released.
+     * Threads waiting in {@link #borrow()}, and submitted tasks that have not leased a context yet,
+     * fail with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        ArrayList<QuackContext> closing;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            closing = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        // queued tasks still run, and fail to borrow, to complete their futures.
+        executor.shutdown();
+        for (QuackContext quackContext: closing) {
+            quackContext.close();
+        }
+    }
+}
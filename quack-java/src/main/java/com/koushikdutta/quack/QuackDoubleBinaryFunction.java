@@ -0,0 +1,9 @@
+package com.koushikdutta.quack;
+
+/**
+ * A function of two numbers that JavaScript calls without boxing its arguments or result.
+ * Other arguments are ignored, and missing arguments are NaN.
+ */
+public interface QuackDoubleBinaryFunction {
+    double apply(double a, double b);
+}
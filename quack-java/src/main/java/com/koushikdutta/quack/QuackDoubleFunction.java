@@ -0,0 +1,9 @@
+package com.koushikdutta.quack;
+
+/**
+ * A function of one number that JavaScript calls without boxing its argument or result.
+ * Other arguments are ignored, and a missing argument is NaN.
+ */
+public interface QuackDoubleFunction {
+    double apply(double value);
+}
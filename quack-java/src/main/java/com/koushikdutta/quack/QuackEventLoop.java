@@ -0,0 +1,290 @@
+package com.koushikdutta.quack;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A QuackContext owned by a single thread.
+ * Any number of threads may submit work, which is queued without locking and run in order on the
+ * loop thread. The loop holds the context lock for a whole batch of tasks, and runs pending
+ * promise jobs and finalizations once after each task rather than after every call.
+ * Code running on the loop thread may use {@link #getContext()} directly, but must not block
+ * on the futures returned by this loop.
+ */
+public final class QuackEventLoop implements Executor, Closeable {
+    // tasks run before the loop yields the context lock.
+    private static final int BATCH_SIZE = 64;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private QuackContext quackContext;
+    private volatile boolean sleeping;
+    private volatile boolean postInvocationPending;
+    private volatile boolean closed;
+
+    private QuackEventLoop(ThreadFactory threadFactory) {
+        thread = threadFactory.newThread(this::run);
+    }
+
+    /**
+     * Create an event loop with a new context, running on a new daemon thread.
+     */
+    public static QuackEventLoop create() {
+        return create(runnable -> {
+            Thread thread = new Thread(runnable, "QuackEventLoop-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create an event loop with a new context, running on a thread from {@code threadFactory}.
+     */
+    public static QuackEventLoop create(ThreadFactory threadFactory) {
+        QuackEventLoop loop = new QuackEventLoop(threadFactory);
+        CompletableFuture<QuackContext> created = loop.submit(quackContext -> quackContext);
+        loop.thread.start();
+        try {
+            created.get();
+        }
+        catch (InterruptedException e) {
+            loop.close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            loop.close();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return loop;
+    }
+
+    /**
+     * The context owned by this loop. It must only be used from the loop thread.
+     */
+    public QuackContext getContext() {
+        return quackContext;
+    }
+
+    public boolean isInEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run {@code task} with the loop's context, on the loop thread.
+     */
+    public <T> CompletableFuture<T> submit(Function<QuackContext, T> task) {
+        Task<T> submitted = new Task<>(task);
+        enqueue(submitted);
+        return submitted.future;
+    }
+
+    public CompletableFuture<Object> evaluate(String script) {
+        return submit(quackContext -> quackContext.evaluate(script));
+    }
+
+    public CompletableFuture<Object> evaluate(String script, String fileName) {
+        return submit(quackContext -> quackContext.evaluate(script, fileName));
+    }
+
+    public <T> CompletableFuture<T> evaluate(String script, Class<T> clazz) {
+        return submit(quackContext -> quackContext.evaluate(script, clazz));
+    }
+
+    /**
+     * Call {@code function}, which must belong to this loop's context, on the loop thread.
+     */
+    public CompletableFuture<Object> call(JavaScriptObject function, Object... args) {
+        return submit(quackContext -> function.call(args));
+    }
+
+    /**
+     * Call the method {@code property} of {@code object}, which must belong to this loop's context,
+     * on the loop thread.
+     */
+    public CompletableFuture<Object> callProperty(JavaScriptObject object, Object property, Object... args) {
+        return submit(quackContext -> object.callProperty(property, args));
+    }
+
+    /**
+     * Run {@code command} on the loop thread.
+     * @throws RejectedExecutionException if the loop is closed.
+     */
+    @Override
+    public void execute(Runnable command) {
+        enqueue(command);
+    }
+
+    private void enqueue(Runnable task) {
+        if (closed) {
+            reject(task, new RejectedExecutionException("QuackEventLoop is closed"));
+            return;
+        }
+        tasks.offer(task);
+        if (closed) {
+            // the loop may have already drained the queue, take it back if so.
+            if (tasks.remove(task))
+                reject(task, new RejectedExecutionException("QuackEventLoop is closed"));
+            return;
+        }
+        wakeup();
+    }
+
+    private static void reject(Runnable task, RuntimeException e) {
+        if (!(task instanceof Task))
+            throw e;
+        ((Task<?>) task).future.completeExceptionally(e);
+    }
+
+    private void wakeup() {
+        // only unpark a loop that is, or is about to be, parked.
+        if (sleeping)
+            LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        try {
+            quackContext = QuackContext.create();
+        }
+        catch (RuntimeException e) {
+            closed = true;
+            fail(e);
+            return;
+        }
+        // coalesce post invocation work, and run it once per task.
+        quackContext.setJobExecutor(runnable -> {
+            if (runnable != quackContext.postInvocation) {
+                execute(runnable);
+                return;
+            }
+            postInvocationPending = true;
+            wakeup();
+        });
+
+        ReentrantLock lock = quackContext.getLock();
+        while (true) {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                if (postInvocationPending) {
+                    runPostInvocation();
+                    continue;
+                }
+                if (closed)
+                    break;
+                sleeping = true;
+                // check again after publishing the sleeping flag, so a wakeup is never missed.
+                if (tasks.isEmpty() && !postInvocationPending && !closed)
+                    LockSupport.park(this);
+                sleeping = false;
+                continue;
+            }
+
+            lock.lock();
+            try {
+                int count = 0;
+                do {
+                    runTask(task);
+                    // like microtasks, promise jobs run before the next task.
+                    if (postInvocationPending)
+                        runPostInvocation();
+                }
+                while (++count < BATCH_SIZE && (task = tasks.poll()) != null);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        quackContext.close();
+        fail(new RejectedExecutionException("QuackEventLoop is closed"));
+    }
+
+    private void runPostInvocation() {
+        postInvocationPending = false;
+        try {
+            quackContext.runPostInvocation();
+        }
+        catch (Throwable e) {
+            uncaught(e);
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        }
+        catch (Throwable e) {
+            uncaught(e);
+        }
+    }
+
+    private void uncaught(Throwable e) {
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        if (handler != null)
+            handler.uncaughtException(thread, e);
+    }
+
+    private void fail(RuntimeException e) {
+        // submitted tasks complete their futures exceptionally, plain commands are dropped.
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (task instanceof Task)
+                ((Task<?>) task).future.completeExceptionally(e);
+        }
+    }
+
+    private final class Task<T> implements Runnable {
+        final Function<QuackContext, T> function;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Function<QuackContext, T> function) {
+            this.function = function;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(function.apply(quackContext));
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Close the loop. Tasks submitted before the loop was closed are run, and then the context
+     * is closed. Unless called from the loop thread, this waits for the loop to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (isInEventLoop() || !thread.isAlive())
+            return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -1,22 +1,40 @@
 package com.koushikdutta.quack;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class QuackFuture<T> {
+/**
+ * The result of a JavaScript call that may return a Promise.
+ * The blocking get methods throw the rejection directly. The CompletionStage methods
+ * do not block, and run their async callbacks on the default executor,
+ * which is the common ForkJoinPool unless set with {@link #setDefaultExecutor(Executor)}.
+ */
+public class QuackFuture<T> implements CompletionStage<T> {
     private final QuackContext quackContext;
     private final Class<T> clazz;
-    private final Semaphore semaphore = new Semaphore(0);
-    private Object data = null;
-    private Exception error = null;
+    // the settled JavaScript value, or the rejection.
+    private final CompletableFuture<Object> settled = new CompletableFuture<>();
+    // the value coerced to T.
+    private final CompletableFuture<T> future;
+    private volatile Executor defaultExecutor;
 
+    @SuppressWarnings("unchecked")
     private QuackFuture(Class<T> clazz, QuackContext quackContext) {
         this.clazz = clazz;
         this.quackContext = quackContext;
+        future = settled.thenApply(data -> (T) quackContext.coerceJavaScriptToJava(clazz, data));
     }
 
-
     public static <T> QuackFuture<T> create(Class<T> clazz, QuackContext quackContext, Object ret) {
         QuackFuture<T> future = new QuackFuture<>(clazz, quackContext);
         if (!(ret instanceof JavaScriptObject)) {
@@ -37,42 +55,59 @@ public class QuackFuture<T> {
     }
 
     private void setData(Object data) {
-        this.data = data;
-        semaphore.release();
+        settled.complete(data);
     }
 
     private void setError(Object error) {
         if (error instanceof JavaScriptObject) {
             try {
                 // rethrow
-                quackContext.evaluateForJavaScriptObject("(function(e){throw e})").call(error);
+                quackContext.helper("(function(e){throw e})").call(error);
             } catch(Exception e) {
-                this.error = e;
+                settled.completeExceptionally(e);
+                return;
             }
         } else if(error instanceof Exception) {
-            this.error = (Exception) error;
+            settled.completeExceptionally((Exception) error);
+            return;
         }
-        semaphore.release();
+        settled.complete(null);
     }
 
     public void await() throws InterruptedException {
-        semaphore.acquire();
+        try {
+            settled.get();
+        }
+        catch (ExecutionException e) {
+            // settled.
+        }
     }
 
     public boolean tryAwait() {
-        return semaphore.tryAcquire();
+        return settled.isDone();
     }
 
     public boolean tryAwait(long timeout, TimeUnit unit) throws InterruptedException {
-        return semaphore.tryAcquire(timeout, unit);
+        try {
+            settled.get(timeout, unit);
+        }
+        catch (ExecutionException e) {
+            // settled.
+        }
+        catch (TimeoutException e) {
+            return false;
+        }
+        return true;
     }
 
     @SuppressWarnings("unchecked")
     <U> U getRaw(Class<U> clazz) throws QuackException {
-        if (error != null) {
-            if (error instanceof QuackException) {
-                throw (QuackException) error;
-            }
+        Object data;
+        try {
+            data = settled.getNow(null);
+        }
+        catch (CompletionException e) {
+            Throwable error = e.getCause();
             if (error instanceof RuntimeException) {
                 throw (RuntimeException) error;
             }
@@ -95,7 +130,7 @@ public class QuackFuture<T> {
     }
 
     public <U> U tryGet(Class<U> clazz) throws QuackException, TimeoutException {
-        if (!semaphore.tryAcquire()) {
+        if (!tryAwait()) {
             throw new TimeoutException();
         }
         return getRaw(clazz);
@@ -118,4 +153,211 @@ public class QuackFuture<T> {
         }
         return getRaw(clazz);
     }
+
+    /**
+     * Set the executor used by the async CompletionStage methods that do not take an executor.
+     */
+    public QuackFuture<T> setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor;
+        return this;
+    }
+
+    public Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * A CompletableFuture that completes with the coerced value, or the rejection.
+     * Completing it does not affect this future.
+     */
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return future.thenApply(Function.identity());
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+        return future.thenApply(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+        return future.thenApplyAsync(fn, getDefaultExecutor());
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+        return future.thenApplyAsync(fn, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+        return future.thenAccept(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+        return future.thenAcceptAsync(action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+        return future.thenAcceptAsync(action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> thenRun(Runnable action) {
+        return future.thenRun(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action) {
+        return future.thenRunAsync(action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+        return future.thenRunAsync(action, executor);
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombine(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return future.thenCombine(other, fn);
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return future.thenCombineAsync(other, fn, getDefaultExecutor());
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+        return future.thenCombineAsync(other, fn, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return future.thenAcceptBoth(other, action);
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return future.thenAcceptBothAsync(other, action, getDefaultExecutor());
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action, Executor executor) {
+        return future.thenAcceptBothAsync(other, action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+        return future.runAfterBoth(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+        return future.runAfterBothAsync(other, action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return future.runAfterBothAsync(other, action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return future.applyToEither(other, fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return future.applyToEitherAsync(other, fn, getDefaultExecutor());
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn, Executor executor) {
+        return future.applyToEitherAsync(other, fn, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return future.acceptEither(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return future.acceptEitherAsync(other, action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action, Executor executor) {
+        return future.acceptEitherAsync(other, action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+        return future.runAfterEither(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+        return future.runAfterEitherAsync(other, action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return future.runAfterEitherAsync(other, action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return future.thenCompose(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return future.thenComposeAsync(fn, getDefaultExecutor());
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+        return future.thenComposeAsync(fn, executor);
+    }
+
+    @Override
+    public CompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        return future.whenComplete(action);
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+        return future.whenCompleteAsync(action, getDefaultExecutor());
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+        return future.whenCompleteAsync(action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return future.handle(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return future.handleAsync(fn, getDefaultExecutor());
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+        return future.handleAsync(fn, executor);
+    }
+
+    @Override
+    public CompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        return future.exceptionally(fn);
+    }
 }
@@ -0,0 +1,86 @@
+package com.koushikdutta.quack;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+
+/**
+ * Releases every JavaScriptObject created within it, on the thread that opened it, in a single
+ * native call when it is closed. Objects that must outlive the scope can be kept with
+ * {@link #escape(Object)}. Released objects, and proxies created from them, can not be used afterwards.
+ * The scope holds the context lock from {@link QuackContext#openScope()} until it is closed,
+ * and nested scopes must be closed in the reverse order they were opened.
+ */
+public final class QuackScope implements Closeable {
+    private final QuackContext quackContext;
+    private final QuackScope parent;
+    // escaped objects leave a null slot behind.
+    private final ArrayList<JavaScriptObject> objects = new ArrayList<>();
+    private boolean closed;
+
+    QuackScope(QuackContext quackContext, QuackScope parent) {
+        this.quackContext = quackContext;
+        this.parent = parent;
+    }
+
+    void add(JavaScriptObject object) {
+        objects.add(object);
+    }
+
+    boolean remove(JavaScriptObject object) {
+        // usually the most recently created object.
+        for (int i = objects.size() - 1; i >= 0; i--) {
+            if (objects.get(i) == object) {
+                objects.set(i, null);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of objects that will be released when this scope is closed.
+     */
+    public int size() {
+        int size = 0;
+        for (JavaScriptObject object: objects) {
+            if (object != null)
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * Keep {@code object}, a JavaScriptObject or a proxy of one, alive after this scope is closed.
+     * It moves to the enclosing scope if there is one, otherwise it is released when it is
+     * closed or collected.
+     */
+    public <T> T escape(T object) {
+        JavaScriptObject jo;
+        if (object instanceof JavaScriptObject)
+            jo = (JavaScriptObject)object;
+        else if (object instanceof QuackJavaScriptObject)
+            jo = ((QuackJavaScriptObject)object).getJavaScriptObject();
+        else
+            return object;
+        if (remove(jo) && parent != null)
+            parent.add(jo);
+        return object;
+    }
+
+    QuackScope getParent() {
+        return parent;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        quackContext.closeScope(this);
+        closed = true;
+        objects.clear();
+    }
+
+    ArrayList<JavaScriptObject> getObjects() {
+        return objects;
+    }
+}
@@ -0,0 +1,107 @@
+package com.koushikdutta.quack;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * A JavaScript function bound to fixed argument and return types, created with
+ * {@link JavaScriptObject#bind(Class, Class[])}.
+ * The conversions are resolved once when binding, so calls skip the per argument
+ * coercion lookups of {@link JavaScriptObject#call(Object...)}.
+ * Coercions registered with the context after binding are not seen by the bound function.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class ScriptFunction<R> {
+    private final JavaScriptObject function;
+    private final QuackContext quackContext;
+    private final Class<R> returnType;
+    private final Class<?>[] argTypes;
+    // the coercion of each argument, or null if it is passed as is.
+    private final QuackCoercion[] argCoercions;
+    // arguments of types that may be subclassed are coerced by their runtime class.
+    private final boolean[] runtimeCoercion;
+
+    ScriptFunction(JavaScriptObject function, Class<R> returnType, Class<?>... argTypes) {
+        this.function = function;
+        this.quackContext = function.quackContext;
+        this.returnType = returnType == void.class || returnType == Void.class ? null : (Class<R>)boxed(returnType);
+        this.argTypes = argTypes.clone();
+        argCoercions = new QuackCoercion[argTypes.length];
+        runtimeCoercion = new boolean[argTypes.length];
+        for (int i = 0; i < argTypes.length; i++) {
+            Class<?> argType = boxed(argTypes[i]);
+            if (!isExactType(argType)) {
+                runtimeCoercion[i] = true;
+                continue;
+            }
+            argCoercions[i] = quackContext.getExactJavaToJavaScriptCoercion(argType);
+        }
+    }
+
+    // values of these types are always of exactly the declared class.
+    private static boolean isExactType(Class<?> clazz) {
+        return Modifier.isFinal(clazz.getModifiers())
+                && !clazz.isArray()
+                && !QuackJavaObject.class.isAssignableFrom(clazz);
+    }
+
+    private static Class<?> boxed(Class<?> clazz) {
+        if (!clazz.isPrimitive())
+            return clazz;
+        if (clazz == boolean.class)
+            return Boolean.class;
+        if (clazz == byte.class)
+            return Byte.class;
+        if (clazz == short.class)
+            return Short.class;
+        if (clazz == char.class)
+            return Character.class;
+        if (clazz == int.class)
+            return Integer.class;
+        if (clazz == long.class)
+            return Long.class;
+        if (clazz == float.class)
+            return Float.class;
+        if (clazz == double.class)
+            return Double.class;
+        return clazz;
+    }
+
+    public JavaScriptObject getFunction() {
+        return function;
+    }
+
+    public Class<?>[] getArgumentTypes() {
+        return argTypes.clone();
+    }
+
+    /**
+     * Call the function. The arguments are coerced in place.
+     * @throws IllegalArgumentException if the number of arguments does not match the bound types.
+     */
+    public R call(Object... args) {
+        if (args.length != argCoercions.length)
+            throw new IllegalArgumentException("expected " + argCoercions.length + " arguments, got " + args.length);
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null)
+                continue;
+            if (runtimeCoercion[i]) {
+                args[i] = quackContext.coerceJavaToJavaScript(arg);
+                continue;
+            }
+            QuackCoercion coercion = argCoercions[i];
+            if (coercion != null) {
+                Object coerced = coercion.coerce(arg.getClass(), arg);
+                if (coerced != null)
+                    args[i] = coerced;
+            }
+        }
+
+        Object ret = quackContext.call(function.getNativePointer(), args);
+        if (returnType == null)
+            return null;
+        if (returnType.isInstance(ret) && !(ret instanceof QuackJavaObject))
+            return (R)ret;
+        return (R)quackContext.coerceJavaScriptToJava(returnType, ret);
+    }
+}
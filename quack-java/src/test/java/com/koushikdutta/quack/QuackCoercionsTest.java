@@ -1,6 +1,7 @@
 package com.koushikdutta.quack;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -14,6 +15,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class QuackCoercionsTest {
     public static void assertEqualsJSON(String expected, Object actual) {
@@ -260,6 +264,103 @@ public class QuackCoercionsTest {
         }
     }
 
+    interface DeferredMethods {
+        QuackFuture<String> deferred();
+
+        QuackFuture<String> rejected();
+    }
+
+    @Test
+    public void testQuackFutureCompletionStage() throws Exception {
+        try (QuackContext quackContext = QuackContext.create()) {
+            String script = STR(
+                    "({",
+                    "deferred: () => new Promise(r => globalThis.resolve = r),",
+                    "rejected: async () => {throw new Error('rejected')},",
+                    "})");
+            DeferredMethods methods = quackContext.evaluate(script, DeferredMethods.class);
+
+            CompletableFuture<String> future = methods.deferred()
+                    .thenApply(s -> s + "!")
+                    .thenCompose(s -> CompletableFuture.supplyAsync(() -> s + "?"))
+                    .toCompletableFuture();
+            assertFalse(future.isDone());
+            quackContext.evaluate("resolve('hello')");
+            assertEquals("hello!?", future.get(10, TimeUnit.SECONDS));
+
+            try {
+                methods.rejected().toCompletableFuture().get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof QuackException);
+                assertEquals("Error: rejected", e.getCause().getMessage());
+            }
+        }
+    }
+
+    public static class AsyncHost {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+
+        public CompletableFuture<String> fetch() {
+            return pending;
+        }
+    }
+
+    @Test
+    public void testCompletionStageToPromise() throws Exception {
+        try (QuackContext quackContext = QuackContext.create()) {
+            AsyncHost host = new AsyncHost();
+            quackContext.getGlobalObject().set("host", host);
+            String script = STR(
+                    "({",
+                    "deferred: async () => (await host.fetch()) + '!',",
+                    "rejected: async () => { try { await Promise.reject(0); } catch (e) {} return host.fetch(); },",
+                    "})");
+            DeferredMethods methods = quackContext.evaluate(script, DeferredMethods.class);
+            assertTrue((Boolean) quackContext.evaluate("host.fetch() instanceof Promise"));
+
+            CompletableFuture<String> future = methods.deferred().toCompletableFuture();
+            assertFalse(future.isDone());
+            new Thread(() -> host.pending.complete("hello")).start();
+            assertEquals("hello!", future.get(10, TimeUnit.SECONDS));
+
+            AsyncHost failing = new AsyncHost();
+            quackContext.getGlobalObject().set("host", failing);
+            CompletableFuture<String> rejected = methods.rejected().toCompletableFuture();
+            failing.pending.completeExceptionally(new IllegalStateException("failed"));
+            try {
+                rejected.get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    public static class Point {
+        final int x;
+        Point(int x) {
+            this.x = x;
+        }
+    }
+
+    @Test
+    public void testCoercionInvalidation() {
+        try (QuackContext quackContext = QuackContext.create()) {
+            // no coercion is resolved and cached for the class.
+            assertEquals("1", quackContext.coerceJavaScriptToJava(Point.class, "1"));
+            quackContext.putJavaScriptToJavaCoercion(Point.class, (clazz, o) -> new Point(Integer.parseInt(o.toString())));
+            assertEquals(1, ((Point) quackContext.coerceJavaScriptToJava(Point.class, "1")).x);
+
+            Point point = new Point(2);
+            assertEquals(point, quackContext.coerceJavaToJavaScript(point));
+            QuackCoercions.putFromObject(quackContext, (clazz, o) -> o instanceof Point ? "point" + ((Point) o).x : null);
+            assertEquals("point2", quackContext.coerceJavaToJavaScript(point));
+        }
+    }
+
     @Test
     public void testAsync() throws InterruptedException {
         QuackContext quackContext = QuackContext.create();
@@ -0,0 +1,129 @@
+package com.koushikdutta.quack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class QuackContextPoolTest {
+    @Test
+    public void testBootstrap() throws Exception {
+        try (QuackContextPool pool = QuackContextPool.create(2, "var greeting = 'hello';", QuackCoercions::putToList)) {
+            assertEquals(2, pool.size());
+            List<CompletableFuture<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int index = i;
+                futures.add(pool.submit(quackContext -> quackContext.evaluate("greeting + " + index)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("hello" + i, futures.get(i).get());
+            }
+
+            List<?> list = pool.submit(quackContext -> quackContext.evaluate("[1, 2, 3]", List.class)).get();
+            assertEquals(3, list.size());
+        }
+    }
+
+    @Test
+    public void testBorrow() throws Exception {
+        try (QuackContextPool pool = QuackContextPool.create(1)) {
+            QuackContext quackContext = pool.borrow();
+            assertEquals(0, pool.getIdleCount());
+            assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+            pool.release(quackContext);
+            assertEquals(1, pool.getIdleCount());
+        }
+    }
+
+    @Test
+    public void testReleaseNotLeased() throws Exception {
+        try (QuackContextPool pool = QuackContextPool.create(2)) {
+            QuackContext quackContext = pool.borrow();
+            pool.release(quackContext);
+            try {
+                pool.release(quackContext);
+                fail("released twice");
+            }
+            catch (IllegalStateException e) {
+            }
+            // the context is only idle once, so two borrowers never share it.
+            assertEquals(2, pool.getIdleCount());
+            QuackContext first = pool.borrow();
+            QuackContext second = pool.borrow();
+            assertTrue(first != second);
+            pool.release(first);
+            pool.release(second);
+
+            QuackContext foreign = QuackContext.create();
+            try {
+                pool.release(foreign);
+                fail("released a foreign context");
+            }
+            catch (IllegalArgumentException e) {
+            }
+            finally {
+                foreign.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSubmitError() throws Exception {
+        try (QuackContextPool pool = QuackContextPool.create(1)) {
+            try {
+                pool.submit(quackContext -> quackContext.evaluate("throw new Error('error')")).get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof QuackException);
+            }
+            // the context goes back to the pool after a failure.
+            assertEquals(2, pool.submit(quackContext -> quackContext.evaluate("1 + 1")).get());
+        }
+    }
+
+    @Test
+    public void testCloseWakesWaiters() throws Exception {
+        QuackContextPool pool = QuackContextPool.create(1);
+        QuackContext leased = pool.borrow();
+
+        AtomicReference<Throwable> borrowError = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                pool.borrow();
+            }
+            catch (Throwable e) {
+                borrowError.set(e);
+            }
+        });
+        waiter.start();
+        CompletableFuture<Object> queued = pool.submit(quackContext -> quackContext.evaluate("1"));
+        // let both block waiting for the leased context.
+        Thread.sleep(100);
+        assertTrue(waiter.isAlive());
+        assertTrue(!queued.isDone());
+
+        pool.close();
+        waiter.join(5000);
+        assertTrue(borrowError.get() instanceof IllegalStateException);
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // a lease returned after close is closed.
+        pool.release(leased);
+        assertEquals(0, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,96 @@
+package com.koushikdutta.quack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class QuackEventLoopTest {
+    @Test
+    public void testProducers() throws Exception {
+        try (QuackEventLoop loop = QuackEventLoop.create()) {
+            loop.evaluate("var count = 0;").get();
+            List<Thread> threads = new ArrayList<>();
+            List<CompletableFuture<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread thread = new Thread(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        CompletableFuture<Object> future = loop.evaluate("++count");
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread: threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            assertEquals(4000, loop.evaluate("count").get());
+            assertTrue(loop.submit(quackContext -> loop.isInEventLoop()).get());
+        }
+    }
+
+    @Test
+    public void testJobs() throws Exception {
+        try (QuackEventLoop loop = QuackEventLoop.create()) {
+            JavaScriptObject function = loop.evaluate("(function(x) { Promise.resolve(x).then(x => globalThis.result = x); })", JavaScriptObject.class).get();
+            loop.call(function, "hello").get();
+            // promise jobs have run by the time later tasks run.
+            assertEquals("hello", loop.evaluate("result").get());
+        }
+    }
+
+    public static class AsyncHost {
+        public CompletableFuture<Integer> later(int value) {
+            return CompletableFuture.supplyAsync(() -> value * 2);
+        }
+    }
+
+    @Test
+    public void testCompletionStage() throws Exception {
+        try (QuackEventLoop loop = QuackEventLoop.create()) {
+            loop.submit(quackContext -> {
+                quackContext.getGlobalObject().set("host", new AsyncHost());
+                return null;
+            }).get();
+            loop.evaluate("host.later(21).then(v => globalThis.result = v)").get();
+            // the promise is resolved by a task on the loop.
+            for (int i = 0; i < 1000 && !Integer.valueOf(42).equals(loop.evaluate("globalThis.result").get()); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(42, loop.evaluate("result").get());
+        }
+    }
+
+    @Test
+    public void testErrorAndClose() throws Exception {
+        QuackEventLoop loop = QuackEventLoop.create();
+        try {
+            loop.evaluate("throw new Error('error')").get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QuackException);
+        }
+        assertEquals(2, loop.evaluate("1 + 1").get());
+
+        loop.close();
+        try {
+            loop.evaluate("1 + 1").get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
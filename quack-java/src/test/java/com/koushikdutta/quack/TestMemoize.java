@@ -0,0 +1,55 @@
+package com.koushikdutta.quack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestMemoize {
+    @Test
+    public void testCollision() {
+        // "Aa" and "BB" have the same String.hashCode.
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        Memoize<String> memoize = new Memoize<>();
+        Object[] args = new Object[] { String.class };
+        assertEquals("Aa", memoize.memoize(() -> "Aa", "Aa", args));
+        assertEquals("BB", memoize.memoize(() -> "BB", "BB", args));
+        assertEquals("Aa", memoize.memoize(() -> "wrong", "Aa", args));
+        assertEquals(2, memoize.size());
+    }
+
+    @Test
+    public void testArrayKeys() {
+        Memoize<String> memoize = new Memoize<>();
+        assertEquals("a", memoize.memoize(() -> "a", "key", new Object[] { Integer.class, String.class }));
+        assertEquals("a", memoize.memoize(() -> "b", "key", new Object[] { Integer.class, String.class }));
+        assertEquals("c", memoize.memoize(() -> "c", "key", new Object[] { String.class, Integer.class }));
+        assertEquals(1, memoize.getHitCount());
+        assertEquals(2, memoize.getMissCount());
+    }
+
+    @Test
+    public void testNull() {
+        Memoize<String> memoize = new Memoize<>();
+        assertNull(memoize.memoize(() -> null, "key"));
+        assertNull(memoize.memoize(() -> "wrong", "key"));
+        assertEquals(1, memoize.getHitCount());
+    }
+
+    @Test
+    public void testBounded() {
+        Memoize<Integer> memoize = new Memoize<>(8);
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            // keep key 0 hot so it survives eviction.
+            memoize.memoize(() -> 0, 0);
+            memoize.memoize(() -> value, value);
+        }
+        assertTrue(memoize.size() <= 8);
+        assertTrue(memoize.getEvictionCount() > 0);
+        long hits = memoize.getHitCount();
+        assertEquals(Integer.valueOf(0), memoize.memoize(() -> -1, 0));
+        assertEquals(hits + 1, memoize.getHitCount());
+    }
+}
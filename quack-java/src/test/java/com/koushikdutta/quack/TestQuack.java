@@ -5,18 +5,23 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -883,6 +888,145 @@ public class TestQuack {
         assertEquals(FieldTest.staticFoo, 4);
     }
 
+    public static class OtherFieldTest {
+        public static int staticFoo = 5;
+
+        private String bar = "bar";
+        @QuackProperty(name = "bar")
+        public String getBar() {
+            return bar;
+        }
+        @QuackProperty(name = "bar")
+        public void setBar(String bar) {
+            this.bar = bar;
+        }
+
+        @QuackMethodName(name = "greet")
+        public String hello(String name) {
+            return "hello " + name;
+        }
+    }
+    @Test
+    public void testClassBinding() {
+        QuackContext quack = QuackContext.create();
+        FieldTest.staticFoo = 1;
+        quack.getGlobalObject().set("testClass", FieldTest.class);
+        quack.getGlobalObject().set("otherClass", OtherFieldTest.class);
+        quack.getGlobalObject().set("other", new OtherFieldTest());
+        // same static field name on two classes.
+        assertEquals(1, quack.evaluate("testClass.staticFoo"));
+        assertEquals(5, quack.evaluate("otherClass.staticFoo"));
+        assertEquals("bar", quack.evaluate("other.bar"));
+        assertEquals("baz", quack.evaluate("other.bar = 'baz'; other.bar"));
+        assertEquals("hello world", quack.evaluate("other.greet('world')"));
+        assertEquals("hello world", quack.evaluate("other.hello('world')"));
+        quack.close();
+
+        ClassBinding binding = ClassBinding.of(OtherFieldTest.class);
+        assertSame(binding, ClassBinding.of(OtherFieldTest.class));
+        assertSame(binding.getResolver("greet"), binding.getResolver("greet"));
+        // names without methods are not cached, so they can't grow the binding.
+        assertNotSame(binding.getResolver("missing"), binding.getResolver("missing"));
+    }
+
+    public static class InvokerTest {
+        public final String name;
+        public InvokerTest(String name) {
+            this.name = name;
+        }
+        public int sum(int... values) {
+            int ret = 0;
+            for (int value: values) {
+                ret += value;
+            }
+            return ret;
+        }
+        public static String join(String a, String b) {
+            return a + b;
+        }
+        public void fail() throws IOException {
+            throw new IOException("fail");
+        }
+    }
+    public static class OverloadTest {
+        public String foo(String value) {
+            return "string";
+        }
+        public String foo(int value) {
+            return "int";
+        }
+        public String foo(Object value, Object other) {
+            return "two";
+        }
+    }
+    @Test
+    public void testOverloadResolver() {
+        QuackContext quack = QuackContext.create();
+        quack.getGlobalObject().set("test", new OverloadTest());
+        // call sites change argument types between calls.
+        assertEquals("string,int,string,int", quack.evaluate("[ 'a', 1, 'b', 2 ].map(v => test.foo(v)).join()"));
+        assertEquals("string,int,two,string,int", quack.evaluate("[ test.foo('a'), test.foo(1), test.foo('a', 'b'), test.foo('b'), test.foo(2) ].join()"));
+        quack.close();
+    }
+
+    @Test
+    public void testMethodHandleInvokers() {
+        boolean enabled = QuackContext.getMethodHandleInvokers();
+        try {
+            for (boolean methodHandles: new boolean[] { true, false }) {
+                QuackContext.setMethodHandleInvokers(methodHandles);
+                QuackContext quack = QuackContext.create();
+                quack.getGlobalObject().set("InvokerTest", InvokerTest.class);
+                assertEquals("test", quack.evaluate("new InvokerTest('test').name"));
+                assertEquals(6, quack.evaluate("new InvokerTest('test').sum(1, 2, 3)"));
+                assertEquals(0, quack.evaluate("new InvokerTest('test').sum()"));
+                assertEquals("ab", quack.evaluate("InvokerTest.join('a', 'b')"));
+                try {
+                    quack.evaluate("new InvokerTest('test').fail()");
+                    fail("failure expected");
+                }
+                catch (RuntimeException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+                quack.close();
+            }
+        }
+        finally {
+            QuackContext.setMethodHandleInvokers(enabled);
+        }
+    }
+
+    @Test
+    public void testBatchProperties() {
+        QuackContext quack = QuackContext.create();
+        JavaScriptObject record = quack.evaluateForJavaScriptObject("({ name: 'quack', count: 3, ratio: 0.5 })");
+        Object[] values = record.getAll("name", "count", "missing", "ratio");
+        assertEquals("quack", values[0]);
+        assertEquals(3, values[1]);
+        assertNull(values[2]);
+        assertEquals(0.5, values[3]);
+
+        LinkedHashMap<String, Object> set = new LinkedHashMap<>();
+        set.put("name", "duck");
+        set.put("extra", true);
+        assertTrue(record.setAll(set));
+        assertEquals("{\"name\":\"duck\",\"count\":3,\"ratio\":0.5,\"extra\":true}", record.stringify());
+
+        JavaScriptObject array = quack.evaluateForJavaScriptObject("[ 'a', 'b', 'c', 'd' ]");
+        assertEquals(Arrays.asList("b", "c"), Arrays.asList(array.getAll(1, 2)));
+        assertTrue(array.setAll(3, "e", "f"));
+        assertEquals("a,b,c,e,f", array.toString());
+
+        try {
+            quack.evaluateForJavaScriptObject("({ get fail() { throw new Error('fail'); } })").getAll("fail");
+            fail("failure expected");
+        }
+        catch (QuackException e) {
+            assertTrue(e.getMessage().contains("fail"));
+        }
+        quack.close();
+    }
+
     public interface VarArgTest {
         Object invoke(Object... args);
     }
@@ -1117,6 +1261,590 @@ public class TestQuack {
         quack.close();
     }
 
+    @Test
+    public void testBulkArrays() {
+        QuackContext quack = QuackContext.create();
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, quack.evaluate("[1, 2.5, '3']", int[].class)));
+        assertTrue(Arrays.equals(new int[] { 4, 5 }, quack.evaluate("new Int32Array([4, 5])", int[].class)));
+        assertTrue(Arrays.equals(new long[] { 1L << 40 }, quack.evaluate("[Math.pow(2, 40)]", long[].class)));
+        assertTrue(Arrays.equals(new double[] { 0.5, 2 }, quack.evaluate("new Float64Array([0.5, 2])", double[].class)));
+        assertTrue(Arrays.equals(new double[] { 0.5, 2 }, quack.evaluate("[0.5, 2]", double[].class)));
+        assertTrue(Arrays.equals(new String[] { "a", null }, quack.evaluate("['a', null]", String[].class)));
+        assertTrue(Arrays.equals(new Object[] { "a", 1 }, quack.evaluate("['a', 1]", Object[].class)));
+        assertEquals(100000, quack.evaluate("new Array(100000).fill(7)", int[].class).length);
+        assertTrue(Arrays.equals(new int[] { Integer.MAX_VALUE, 0 }, quack.evaluate("[1e10, NaN]", int[].class)));
+
+        // elements that are not numbers go through the java coercions.
+        try {
+            quack.evaluate("[1, 'abc']", int[].class);
+            fail("string coerced to int");
+        }
+        catch (NumberFormatException e) {
+        }
+        try {
+            quack.evaluate("[1, null]", double[].class);
+            fail("null coerced to double");
+        }
+        catch (IllegalArgumentException e) {
+        }
+        try {
+            quack.evaluate("new Array(Math.pow(2, 32) - 1)", int[].class);
+            fail("sparse array converted");
+        }
+        catch (QuackException e) {
+        }
+
+        assertEquals("[1,2]", quack.toJavaScriptArray(new int[] { 1, 2 }).stringify());
+        assertEquals("[0.5]", quack.toJavaScriptArray(new double[] { 0.5 }).stringify());
+        assertEquals("[\"a\",null]", quack.toJavaScriptArray(new String[] { "a", null }).stringify());
+        JavaScriptObject roundtrip = quack.toJavaScriptArray(new int[100000]);
+        assertEquals(100000, roundtrip.get("length"));
+        quack.close();
+    }
+
+    @Test
+    public void testBinaryObject() {
+        QuackContext quack = QuackContext.create();
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        map.put("int", 42);
+        map.put("double", 0.5);
+        map.put("string", "h\u00e9llo");
+        map.put("null", null);
+        map.put("list", Arrays.asList(true, false, 1L << 40));
+        map.put("array", new int[] { 1, 2 });
+        QuackBinaryObject binary = QuackBinaryObject.encode(map);
+
+        JavaScriptObject func = quack.compileFunction("(function(o) { return JSON.stringify(o); })", "?");
+        assertEquals("{\"int\":42,\"double\":0.5,\"string\":\"h\u00e9llo\",\"null\":null,\"list\":[true,false,1099511627776],\"array\":[1,2]}", func.call(binary));
+        // decoding is repeatable, the buffer position is not consumed.
+        assertEquals(func.call(binary), func.call(binary));
+
+        JavaScriptObject object = (JavaScriptObject)quack.evaluate("({ a: [1, 'two', { b: null }], c: 1.5, f: function() {}, u: undefined })");
+        Object decoded = object.toBinary().decode();
+        assertEquals("{a=[1, two, {b=null}], c=1.5, f=null, u=null}", decoded.toString());
+
+        JavaScriptObject cyclic = (JavaScriptObject)quack.evaluate("var cyclic = {}; cyclic.self = cyclic; cyclic;");
+        try {
+            cyclic.toBinary();
+            fail("cyclic object encoded");
+        }
+        catch (QuackException e) {
+        }
+
+        ByteBuffer truncated = ByteBuffer.allocateDirect(2);
+        truncated.put(QuackBinaryCodec.STRING);
+        truncated.flip();
+        try {
+            func.call(new QuackBinaryObject(truncated));
+            fail("truncated object decoded");
+        }
+        catch (QuackException e) {
+        }
+
+        // truncated or corrupt input fails with an IllegalArgumentException in java too.
+        ByteBuffer[] corrupt = new ByteBuffer[] {
+                ByteBuffer.allocateDirect(3).put(QuackBinaryCodec.INT32),
+                ByteBuffer.allocateDirect(5).put(QuackBinaryCodec.STRING).putInt(Integer.reverseBytes(-1)),
+                ByteBuffer.allocateDirect(5).put(QuackBinaryCodec.ARRAY).putInt(Integer.reverseBytes(Integer.MAX_VALUE)),
+                ByteBuffer.allocateDirect(7).put(QuackBinaryCodec.OBJECT).putInt(Integer.reverseBytes(1)),
+        };
+        for (ByteBuffer buffer: corrupt) {
+            buffer.rewind();
+            try {
+                new QuackBinaryObject(buffer).decode();
+                fail("corrupt object decoded");
+            }
+            catch (IllegalArgumentException e) {
+            }
+        }
+        quack.close();
+    }
+
+    @Test
+    public void testBytecode() throws IOException {
+        QuackContext quack = QuackContext.create();
+        byte[] script = quack.compileBytecode("var bytecodeCount = (typeof bytecodeCount === 'number' ? bytecodeCount : 0) + 1; bytecodeCount;", "script.js");
+        byte[] module = quack.compileModuleBytecode("globalThis.fromModule = 'module';", "module.js");
+        // compiling does not run anything.
+        assertEquals("undefined", quack.evaluate("typeof bytecodeCount"));
+        quack.close();
+
+        quack = QuackContext.create();
+        assertEquals(1, quack.evaluateBytecode(script));
+        assertEquals(2, (int)quack.evaluateBytecode(Integer.class, script));
+        ByteBuffer direct = ByteBuffer.allocateDirect(script.length);
+        direct.put(script).flip();
+        assertEquals(3, quack.evaluateBytecode(direct));
+        quack.evaluateBytecode(module);
+        assertEquals("module", quack.evaluate("fromModule"));
+        try {
+            quack.compileBytecode("function (", "broken.js");
+            fail("syntax error compiled");
+        }
+        catch (QuackException e) {
+        }
+        quack.close();
+
+        File directory = File.createTempFile("quack", "bytecode");
+        directory.delete();
+        QuackBytecodeCache cache = new QuackBytecodeCache(directory);
+        for (int i = 0; i < 2; i++) {
+            quack = QuackContext.create();
+            assertEquals(42, cache.evaluate(quack, "6 * 7", "cached.js"));
+            assertEquals(1, directory.listFiles().length);
+            quack.close();
+        }
+        // the cache key includes the native build.
+        assertTrue(QuackContext.getBytecodeVersion().startsWith("quickjs "));
+
+        // damaged entries are detected, and replaced.
+        File cached = directory.listFiles()[0];
+        long cachedLength = cached.length();
+        quack = QuackContext.create();
+        for (int i = 0; i < 2; i++) {
+            RandomAccessFile raf = new RandomAccessFile(cached, "rw");
+            try {
+                if (i == 0) {
+                    raf.setLength(cachedLength - 4);
+                }
+                else {
+                    raf.seek(cachedLength - 1);
+                    int last = raf.read();
+                    raf.seek(cachedLength - 1);
+                    raf.write(last ^ 0xff);
+                }
+            }
+            finally {
+                raf.close();
+            }
+            assertEquals(42, cache.evaluate(quack, "6 * 7", "cached.js"));
+            assertEquals(cachedLength, cached.length());
+        }
+        quack.close();
+        cache.clear();
+        assertEquals(0, directory.listFiles().length);
+        directory.delete();
+    }
+
+    @Test
+    public void testContextCreation() {
+        // contexts are cheap to create, and each one starts out clean.
+        for (int i = 0; i < 20; i++) {
+            QuackContext quack = QuackContext.create();
+            assertEquals("undefined", quack.evaluate("typeof leaked"));
+            quack.evaluate("var leaked = " + i);
+            assertEquals(i, quack.evaluate("leaked"));
+            quack.close();
+        }
+
+        // std is still available, it is imported on first use.
+        QuackContext quack = QuackContext.create();
+        assertEquals("function", quack.evaluate("typeof std.printf"));
+        assertEquals("function", quack.evaluate("typeof std.printf"));
+        quack.evaluate("std = 'replaced'");
+        assertEquals("replaced", quack.evaluate("std"));
+        quack.close();
+    }
+
+    @Test
+    public void testSiblingContexts() throws Exception {
+        QuackContext quack = QuackContext.create();
+        quack.evaluate("var owner = 'first'");
+        QuackContext sibling = quack.newSiblingContext();
+        assertEquals("undefined", sibling.evaluate("typeof owner"));
+        sibling.evaluate("var owner = 'sibling'");
+        assertEquals("first", quack.evaluate("owner"));
+        sibling.getGlobalObject().set("callback", (java.util.function.Function<String, String>)arg -> "java " + arg);
+        assertEquals("java sibling", sibling.evaluate("callback.apply(owner)"));
+
+        // the runtime outlives the context that created it.
+        quack.close();
+        assertEquals("sibling", sibling.evaluate("owner"));
+
+        // siblings are serialized on their shared runtime.
+        QuackContext[] contexts = new QuackContext[4];
+        Thread[] threads = new Thread[contexts.length];
+        int[] results = new int[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = sibling.newSiblingContext();
+            QuackContext context = contexts[i];
+            int index = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 200; j++) {
+                    results[index] = context.evaluate("var a = []; for (var k = 0; k < 100; k++) a.push({ k: k }); a.length", Integer.class);
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < contexts.length; i++) {
+            threads[i].join();
+            assertEquals(100, results[i]);
+            // a cycle holding a java object outlives the closed context, until the runtime is collected.
+            contexts[i].getGlobalObject().set("host", new Object());
+            contexts[i].evaluate("var cycle = { host: host, buffer: new Uint8Array(16) }; cycle.self = cycle;");
+            contexts[i].close();
+        }
+        sibling.gc();
+        assertEquals("sibling", sibling.evaluate("owner"));
+
+        // jobs queued by a closed sibling are discarded, not run by the rest of the runtime.
+        QuackContext deferred = sibling.newSiblingContext();
+        ArrayList<Runnable> postponed = new ArrayList<>();
+        deferred.setJobExecutor(postponed::add);
+        int[] ran = new int[1];
+        deferred.getGlobalObject().set("cb", (Runnable)() -> ran[0]++);
+        deferred.evaluate("Promise.resolve().then(() => cb.run())");
+        deferred.close();
+        assertEquals("sibling", sibling.evaluate("owner"));
+        assertEquals(0, ran[0]);
+        sibling.close();
+    }
+
+    @Test
+    public void testCheckpointReset() {
+        QuackContext quack = QuackContext.create();
+        try {
+            quack.reset();
+            fail("reset without a checkpoint");
+        }
+        catch (IllegalStateException e) {
+        }
+
+        quack.evaluate("var bundle = { version: 1 }; function helper() { return 'helper'; }");
+        quack.checkpoint();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("undefined", quack.evaluate("typeof leaked"));
+            assertEquals(1, quack.evaluate("bundle.version"));
+            quack.evaluate("leaked = true; var leakedVar = 1; bundle = null; helper = undefined; delete globalThis.Math;");
+            quack.evaluate("Object.prototype.get = function() { throw new Error('poisoned'); }");
+            // changes inside globals are not undone, but can't break the reset.
+            quack.evaluate("Reflect.ownKeys = function() { return []; }");
+            quack.reset();
+            quack.evaluate("delete Object.prototype.get");
+            assertEquals("helper", quack.evaluate("helper()"));
+            assertEquals("object", quack.evaluate("typeof Math"));
+            assertEquals("undefined", quack.evaluate("typeof leakedVar"));
+        }
+        quack.close();
+    }
+
+    @Test
+    public void testCheckpointResetLimits() {
+        QuackContext quack = QuackContext.create();
+        quack.evaluate("var bundle = { version: 1 };");
+        quack.checkpoint();
+        quack.evaluate("bundle.version = 2; Array.prototype.polluted = true; let declared = 1;");
+        quack.evaluateModule("export var count = 1;", "counter.js");
+        quack.reset();
+
+        // the reset is shallow: mutations inside globals and builtin prototypes leak.
+        assertEquals(2, quack.evaluate("bundle.version"));
+        assertEquals(true, quack.evaluate("[].polluted"));
+        // lexical declarations are not global properties, so they survive and can't be redeclared.
+        assertEquals(1, quack.evaluate("declared"));
+        try {
+            quack.evaluate("let declared = 1;");
+            fail("redeclared a lexical declaration after reset");
+        }
+        catch (QuackException e) {
+        }
+        // modules stay loaded.
+        quack.evaluateModule("import { count } from 'counter.js'; globalThis.imported = count;", "main.js");
+        assertEquals(1, quack.evaluate("imported"));
+        quack.close();
+    }
+
+    @Test
+    public void testTryEvaluate() throws Exception {
+        QuackContext quack = QuackContext.create();
+        assertEquals(2, quack.tryEvaluate("1 + 1", 1, TimeUnit.SECONDS));
+
+        Semaphore locked = new Semaphore(0);
+        Semaphore release = new Semaphore(0);
+        Thread holder = new Thread(() -> {
+            quack.getLock().lock();
+            try {
+                locked.release();
+                release.acquireUninterruptibly();
+            }
+            finally {
+                quack.getLock().unlock();
+            }
+        });
+        holder.start();
+        locked.acquire();
+        try {
+            quack.tryEvaluate("1 + 1", 50, TimeUnit.MILLISECONDS);
+            fail("evaluated while another thread held the context");
+        }
+        catch (TimeoutException e) {
+        }
+        release.release();
+        holder.join();
+        assertEquals(2, quack.tryEvaluate("1 + 1", 1, TimeUnit.SECONDS));
+
+        // callbacks re-enter the context on the same thread.
+        quack.getGlobalObject().set("reenter", (java.util.function.Supplier<Object>)() -> quack.evaluate("40 + 2"));
+        assertEquals(42, quack.tryEvaluate("reenter.get()", 1, TimeUnit.SECONDS));
+        quack.close();
+    }
+
+    @Test
+    public void testJobLimits() {
+        QuackContext quack = QuackContext.create();
+        // without an executor, jobs run to completion after each call.
+        assertEquals(0, quack.evaluate("var count = 0; for (let i = 0; i < 10; i++) Promise.resolve().then(() => count++); count"));
+        assertEquals(10, quack.evaluate("count"));
+
+        java.util.ArrayDeque<Runnable> runs = new java.util.ArrayDeque<>();
+        quack.setJobExecutor(runs::add);
+        quack.setJobLimits(3, 0, TimeUnit.MILLISECONDS);
+        quack.evaluate("count = 0; for (let i = 0; i < 10; i++) Promise.resolve().then(() => count++)");
+        assertEquals(1, runs.size());
+        int dispatched = 0;
+        while (!runs.isEmpty()) {
+            runs.poll().run();
+            dispatched++;
+        }
+        // 10 jobs, 3 per run.
+        assertEquals(4, dispatched);
+        quack.setJobExecutor(null);
+        assertEquals(10, quack.evaluate("count"));
+        quack.close();
+    }
+
+    @Test
+    public void testJavaScriptObjectClose() {
+        QuackContext quack = QuackContext.create();
+        long startHeap = quack.getHeapSize();
+        JavaScriptObject jo = quack.evaluateForJavaScriptObject("({ data: new Array(100000).fill(1.5) })");
+        long usedHeap = quack.getHeapSize();
+        assertTrue(usedHeap - startHeap > 100000);
+
+        JavaScriptObject closedArray;
+        try (JavaScriptObject data = (JavaScriptObject)jo.get("data")) {
+            assertEquals(100000, data.get("length"));
+            closedArray = data;
+        }
+        try {
+            quack.coerceJavaScriptToJava(double[].class, closedArray);
+            fail("coerced a closed JavaScriptObject");
+        }
+        catch (IllegalStateException e) {
+        }
+        jo.close();
+        try {
+            jo.get("data");
+            fail("used a closed JavaScriptObject");
+        }
+        catch (IllegalStateException e) {
+        }
+        // released after the next invocation, without a Java GC.
+        quack.evaluate("0");
+        assertTrue(usedHeap - quack.getHeapSize() > 100000);
+        quack.close();
+    }
+
+    @Test
+    public void testScope() {
+        QuackContext quack = QuackContext.create();
+        quack.evaluate("var items = []; for (let i = 0; i < 1000; i++) items.push({ index: i });");
+        JavaScriptObject escaped;
+        JavaScriptObject first;
+        ByteBuffer buffer;
+        try (QuackScope outer = quack.openScope()) {
+            quack.evaluate("items[0]");
+            try (QuackScope scope = quack.openScope()) {
+                JavaScriptObject items = quack.evaluateForJavaScriptObject("items");
+                first = (JavaScriptObject)items.get(1);
+                for (int i = 2; i < 1000; i++) {
+                    assertEquals(i, ((JavaScriptObject)items.get(i)).get("index"));
+                }
+                escaped = scope.escape((JavaScriptObject)items.get(999));
+                buffer = (ByteBuffer)quack.evaluate("new Uint8Array([1, 2, 3])");
+                assertEquals(1000, scope.size());
+            }
+            try {
+                first.get("index");
+                fail("used a released JavaScriptObject");
+            }
+            catch (IllegalStateException e) {
+            }
+            // escaped into the outer scope.
+            assertEquals(999, escaped.get("index"));
+            assertEquals(2, outer.size());
+        }
+        try {
+            escaped.get("index");
+            fail("used a released JavaScriptObject");
+        }
+        catch (IllegalStateException e) {
+        }
+        // buffers live as long as they are referenced from Java.
+        assertEquals(3, buffer.get(2));
+        assertEquals(1000, quack.evaluate("items.length"));
+        quack.close();
+    }
+
+    @Test
+    public void testAtoms() {
+        QuackContext quack = QuackContext.create();
+        QuackAtom price = quack.atom("price");
+        QuackAtom total = quack.atom("total");
+        assertTrue(price == quack.atom("price"));
+        assertEquals("price", price.getName());
+
+        JavaScriptObject jo = quack.evaluateForJavaScriptObject("({ price: 2, total(count) { return this.price * count; } })");
+        assertEquals(2, jo.get(price));
+        assertTrue(jo.set(price, 3));
+        assertEquals(3, jo.get((Object)price));
+        assertEquals(30, jo.callProperty(total, 10));
+        assertEquals(3, quack.evaluateForJavaScriptObject("(function(o) { return o.price; })").call(jo));
+
+        QuackContext other = QuackContext.create();
+        try {
+            other.evaluateForJavaScriptObject("({})").get(price);
+            fail("used an atom of another context");
+        }
+        catch (IllegalArgumentException e) {
+        }
+        other.close();
+        quack.close();
+    }
+
+    enum Color {
+        RED,
+        GREEN,
+    }
+
+    @Test
+    public void testScriptFunction() {
+        QuackContext quack = QuackContext.create();
+        JavaScriptObject add = quack.evaluateForJavaScriptObject("(function(a, b) { return a + b; })");
+        ScriptFunction<Integer> addInts = add.bind(int.class, int.class, int.class);
+        assertEquals(3, (int)addInts.call(1, 2));
+        ScriptFunction<Double> addDoubles = add.bind(double.class, double.class, float.class);
+        assertEquals(3.75, addDoubles.call(1.5, 2.25f), 0);
+        ScriptFunction<String> concat = add.bind(String.class, String.class, Color.class);
+        assertEquals("color GREEN", concat.call("color ", Color.GREEN));
+        // coerced by runtime class.
+        ScriptFunction<Object> addObjects = add.bind(Object.class, Object.class, Number.class);
+        assertEquals("a1", addObjects.call("a", (byte)1));
+
+        try {
+            addInts.call(1);
+            fail("called with the wrong number of arguments");
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        ScriptFunction<Void> set = quack.evaluateForJavaScriptObject("(function(v) { globalThis.value = v; return v; })").bind(void.class, long.class);
+        assertNull(set.call(5L));
+        assertEquals(5, quack.evaluate("value"));
+        quack.close();
+    }
+
+    @Test
+    public void testPrimitives() {
+        QuackContext quack = QuackContext.create();
+        JavaScriptObject global = quack.getGlobalObject();
+        global.set("square", (QuackDoubleFunction) x -> x * x);
+        global.set("hypot", (QuackDoubleBinaryFunction) Math::hypot);
+        global.set("fail", (QuackDoubleFunction) x -> {
+            throw new IllegalArgumentException("fail");
+        });
+        assertEquals(81, quack.evaluate("square(9)"));
+        assertEquals(5, quack.evaluate("hypot(3, '4')"));
+        assertTrue((boolean)quack.evaluate("isNaN(square())"));
+        assertTrue(quack.evaluate("(function() { try { fail(1); } catch (e) { return e.message; } })()").toString().contains("fail"));
+
+        JavaScriptObject sum = quack.evaluateForJavaScriptObject("(function() { let s = 0; for (const v of arguments) s += v; return s; })");
+        assertEquals(0, sum.callDouble(), 0);
+        assertEquals(1.5, sum.callDouble(1.5), 0);
+        assertEquals(3.5, sum.callDouble(1.5, 2), 0);
+        assertEquals(10, sum.callDouble(1, 2, 3, 4), 0);
+        assertEquals(49, quack.evaluateForJavaScriptObject("square").callDouble(7), 0);
+        assertTrue(Double.isNaN(quack.evaluateForJavaScriptObject("(function() { return 'a'; })").callDouble()));
+        try {
+            quack.evaluateForJavaScriptObject("(function() { throw new Error('error'); })").callDouble();
+            fail("expected exception");
+        }
+        catch (QuackException e) {
+        }
+
+        JavaScriptObject point = quack.evaluateForJavaScriptObject("({ x: 3.75, y: -2, s: '12' })");
+        assertEquals(3, point.getInt("x"));
+        assertEquals(-2, point.getInt(quack.atom("y")));
+        assertEquals(12, point.getInt("s"));
+        assertEquals(0, point.getInt("missing"));
+        assertEquals(3.75, point.getDouble(quack.atom("x")), 0);
+        assertTrue(Double.isNaN(point.getDouble("missing")));
+        quack.close();
+    }
+
+    @Test
+    public void testNativeObjectConstruction() {
+        QuackContext quack = QuackContext.create();
+        JavaScriptObject empty = quack.newObject();
+        assertEquals("{}", empty.stringify());
+        assertTrue((boolean)quack.evaluateForJavaScriptObject("(function(o) { return Object.getPrototypeOf(o) === Object.prototype; })").call(empty));
+
+        QuackAtom[] shape = { quack.atom("name"), quack.atom("count"), quack.atom("nested") };
+        JavaScriptObject object = quack.newObject(shape, new Object[] { "quack", 3, empty });
+        assertEquals("{\"name\":\"quack\",\"count\":3,\"nested\":{}}", object.stringify());
+        try {
+            quack.newObject(shape, new Object[] { "quack" });
+            fail("expected a value for every key");
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        JavaScriptObject array = quack.newArray(3);
+        assertTrue((boolean)quack.evaluateForJavaScriptObject("Array.isArray").call(array));
+        assertEquals(3, array.getInt("length"));
+        array.setAll(0, "a", 1, true);
+        assertEquals("[\"a\",1,true]", array.stringify());
+        assertEquals("[]", quack.newArray(0).stringify());
+
+        QuackCoercions.putFromMap(quack);
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        quack.getGlobalObject().set("map", map);
+        assertEquals(1, quack.evaluate("map.a"));
+        quack.close();
+    }
+
+    @Test
+    public void testHelpers() {
+        QuackContext quack = QuackContext.create();
+        assertEquals("function", quack.evaluateForJavaScriptObject("(function() {})").typeof());
+        assertEquals("object", quack.evaluateForJavaScriptObject("({})").typeof());
+        assertEquals("symbol", quack.evaluateForJavaScriptObject("Symbol.iterator").typeof());
+
+        JavaScriptObject promise = quack.evaluateForJavaScriptObject("Promise.resolve()");
+        assertTrue(promise.isInstanceof("Promise"));
+        assertTrue(promise.isInstanceof("Object"));
+        assertTrue(!promise.isInstanceof("Array"));
+        assertTrue(promise.isInstanceof(quack.evaluateForJavaScriptObject("Promise")));
+        assertTrue(!promise.isInstanceof(quack.evaluateForJavaScriptObject("Date")));
+        try {
+            promise.isInstanceof(quack.newObject());
+            fail("expected a TypeError for an object that is not callable");
+        }
+        catch (QuackException e) {
+        }
+
+        // helpers are evaluated once, and survive scopes.
+        JavaScriptObject entries;
+        try (QuackScope scope = quack.openScope()) {
+            entries = quack.helper("Object.entries");
+        }
+        assertTrue(entries == quack.helper("Object.entries"));
+        assertEquals("[[\"a\",1]]", ((JavaScriptObject)entries.call(quack.evaluateForJavaScriptObject("({ a: 1 })"))).stringify());
+
+        quack.close();
+    }
+
     @Test
     public void testDotConstructBug() {
         QuackContext quack = QuackContext.create();
@@ -1188,7 +1916,7 @@ public class TestQuack {
             try { Thread.sleep(250);} catch(InterruptedException ignore){}
         }
         int purged = quack.purgeNativeMappings();
-        quack.gc();
+        quack.gc(1, TimeUnit.SECONDS);
 
         long afterHeap = quack.getHeapSize();
         logger.log(Level.WARNING, "afterHeap:"+afterHeap);
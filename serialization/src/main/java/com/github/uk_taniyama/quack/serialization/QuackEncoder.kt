@@ -51,11 +51,11 @@ class QuackEncoder(
     }
 
     private fun createObject(): JavaScriptObject {
-        return quackContext.evaluateForJavaScriptObject("({})")
+        return quackContext.newObject()
     }
 
     private fun createArray(): JavaScriptObject {
-        return quackContext.evaluateForJavaScriptObject("([])")
+        return quackContext.newArray(0)
     }
 
     private class ObjectConverter(encoder: QuackEncoder) : Converter(encoder) {